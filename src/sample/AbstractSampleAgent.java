@@ -1,21 +1,21 @@
 package sample;
 
+import java.io.File;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.Set;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Map;
 
 import rescuecore2.worldmodel.EntityID;
+import rescuecore2.worldmodel.ChangeSet;
 import rescuecore2.Constants;
 import rescuecore2.log.Logger;
 
 import rescuecore2.standard.components.StandardAgent;
 import rescuecore2.standard.entities.StandardEntity;
-import rescuecore2.standard.entities.Building;
-import rescuecore2.standard.entities.Refuge;
-import rescuecore2.standard.entities.Road;
+import rescuecore2.standard.entities.Area;
+import rescuecore2.standard.entities.Blockade;
 import rescuecore2.standard.entities.Human;
 import rescuecore2.standard.kernel.comms.ChannelCommunicationModel;
 import rescuecore2.standard.kernel.comms.StandardCommunicationModel;
@@ -27,6 +27,30 @@ import rescuecore2.standard.kernel.comms.StandardCommunicationModel;
 public abstract class AbstractSampleAgent<E extends StandardEntity> extends StandardAgent<E> {
     private static final int RANDOM_WALK_LENGTH = 50;
 
+    private static final String USE_ASTAR_KEY = "sample.search.astar";
+    private static final String AVOID_BLOCKADES_KEY = "sample.search.avoid-blockades";
+    private static final String PATH_CACHE_SIZE_KEY = "sample.search.path-cache-size";
+    private static final String LANDMARKS_KEY = "sample.search.landmarks";
+    private static final String FRONTIER_WALK_KEY = "sample.search.frontier-walk";
+    private static final String PASSAGES_KEY = "sample.search.passages";
+    private static final String PASSAGE_WIDTH_KEY = "sample.search.passage-width";
+    private static final int DEFAULT_PASSAGE_WIDTH = 1000;
+    private static final String ROAD_CHAINS_KEY = "sample.search.road-chains";
+    private static final String HIERARCHY_THRESHOLD_KEY = "sample.search.hierarchy-threshold";
+    private static final int DEFAULT_HIERARCHY_THRESHOLD = 5000;
+    private static final String THINK_TIME_KEY = "kernel.agents.think-time";
+    private static final int DEFAULT_THINK_TIME = 1000;
+    private static final String THINK_MARGIN_KEY = "sample.search.think-margin";
+    private static final int DEFAULT_THINK_MARGIN = 250;
+    private static final String TOPOLOGY_CACHE_KEY = "sample.search.topology-cache";
+    private static final String MAP_DIR_KEY = "gis.map.dir";
+    private static final String MAP_FILE_KEY = "gis.map.file";
+    private static final String DEFAULT_MAP_FILE = "map.gml";
+    private static final String TOPOLOGY_FILE = "topology.bin";
+    private static final String LANDMARKS_FILE = "landmarks.bin";
+    private static final String REACH_FILE = "reach.bin";
+    private static final int DEFAULT_LANDMARKS = 8;
+
     private static final String SAY_COMMUNICATION_MODEL = StandardCommunicationModel.class.getName();
     private static final String SPEAK_COMMUNICATION_MODEL = ChannelCommunicationModel.class.getName();
 
@@ -35,27 +59,86 @@ public abstract class AbstractSampleAgent<E extends StandardEntity> extends Stan
     */
     protected SampleSearch search;
 
+    /**
+       Whether target paths are planned with A* instead of breadth first search.
+    */
+    protected boolean useAStar;
+
+    /**
+       Whether areas with blockades are treated as impassable when planning.
+    */
+    protected boolean avoidBlockades;
+
+    /**
+       Whether paths are planned over passages, taking the shape of known blockades into account. Only takes effect if passage routing is enabled in the configuration.
+    */
+    protected boolean usePassages;
+
     /**
        Whether to use AKSpeak messages or not.
     */
     protected boolean useSpeak;
 
     /**
-       Cache of building IDs.
+       Cache of building IDs. This list is shared and must not be modified.
     */
     protected List<EntityID> buildingIDs;
 
     /**
-       Cache of road IDs.
+       Cache of road IDs. This list is shared and must not be modified.
     */
     protected List<EntityID> roadIDs;
 
     /**
-       Cache of refuge IDs.
+       Cache of refuge IDs. This list is shared and must not be modified.
     */
     protected List<EntityID> refugeIDs;
 
-    private Map<EntityID, Set<EntityID>> neighbours;
+    /**
+       Goal set of all buildings.
+    */
+    protected GoalSet buildingGoals;
+
+    /**
+       Goal set of all roads.
+    */
+    protected GoalSet roadGoals;
+
+    /**
+       Goal set of all refuges.
+    */
+    protected GoalSet refugeGoals;
+
+    /**
+       Distance field to the nearest refuge.
+    */
+    protected DistanceField refugeField;
+
+    /**
+       Distance field to the nearest hydrant.
+    */
+    protected DistanceField hydrantField;
+
+    /**
+       Distance field to the nearest gas station.
+    */
+    protected DistanceField gasStationField;
+
+    private RandomWalker walker;
+
+    private PassageRouter passages;
+
+    private GoalSet passageGoals;
+
+    private long planningBudget;
+
+    private long thinkStart;
+
+    private SharedMapTopology sharedTopology;
+
+    private MapTopology topology;
+
+    private File reachFile;
 
     /**
        Construct an AbstractSampleAgent.
@@ -63,57 +146,229 @@ public abstract class AbstractSampleAgent<E extends StandardEntity> extends Stan
     protected AbstractSampleAgent() {
     }
 
+    /**
+       Construct an AbstractSampleAgent that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    protected AbstractSampleAgent(SharedMapTopology sharedTopology) {
+        this.sharedTopology = sharedTopology;
+    }
+
     @Override
     protected void postConnect() {
         super.postConnect();
-        buildingIDs = new ArrayList<EntityID>();
-        roadIDs = new ArrayList<EntityID>();
-        refugeIDs = new ArrayList<EntityID>();
-        for (StandardEntity next : model) {
-            if (next instanceof Building) {
-                buildingIDs.add(next.getID());
-            }
-            if (next instanceof Road) {
-                roadIDs.add(next.getID());
-            }
-            if (next instanceof Refuge) {
-                refugeIDs.add(next.getID());
-            }
+        File mapFile = null;
+        File topologyFile = null;
+        File landmarksFile = null;
+        String mapDir = config.getValue(MAP_DIR_KEY, null);
+        // Every file cached beside the map is turned off together
+        if (mapDir != null && config.getBooleanValue(TOPOLOGY_CACHE_KEY, true)) {
+            mapFile = new File(mapDir.trim(), config.getValue(MAP_FILE_KEY, DEFAULT_MAP_FILE).trim());
+            topologyFile = new File(mapDir.trim(), TOPOLOGY_FILE);
+            landmarksFile = new File(mapDir.trim(), LANDMARKS_FILE);
+            reachFile = new File(mapDir.trim(), REACH_FILE);
+        }
+        topology = sharedTopology == null ? MapTopology.build(model, mapFile, topologyFile) : sharedTopology.get(model, mapFile, topologyFile);
+        buildingIDs = topology.getBuildingIDs();
+        roadIDs = topology.getRoadIDs();
+        refugeIDs = topology.getRefugeIDs();
+        search = new SampleSearch(topology);
+        walker = new RandomWalker(topology.getGraph(), RANDOM_WALK_LENGTH);
+        buildingGoals = topology.getBuildingGoals();
+        roadGoals = topology.getRoadGoals();
+        refugeGoals = topology.getRefugeGoals();
+        refugeField = search.createDistanceField(refugeGoals);
+        hydrantField = search.createDistanceField(topology.getHydrantGoals());
+        gasStationField = search.createDistanceField(topology.getGasStationGoals());
+        useAStar = config.getBooleanValue(USE_ASTAR_KEY, false);
+        avoidBlockades = config.getBooleanValue(AVOID_BLOCKADES_KEY, false);
+        if (config.getBooleanValue(PASSAGES_KEY, false)) {
+            passages = new PassageRouter(topology.getPassages(model), config.getIntValue(PASSAGE_WIDTH_KEY, DEFAULT_PASSAGE_WIDTH));
+            passageGoals = new GoalSet(topology.getGraph());
+            usePassages = true;
+        }
+        walker.setFrontierBias(config.getBooleanValue(FRONTIER_WALK_KEY, false));
+        planningBudget = Math.max(0, config.getIntValue(THINK_TIME_KEY, DEFAULT_THINK_TIME) - config.getIntValue(THINK_MARGIN_KEY, DEFAULT_THINK_MARGIN));
+        search.setPathCacheSize(config.getIntValue(PATH_CACHE_SIZE_KEY, SampleSearch.DEFAULT_PATH_CACHE_SIZE));
+        search.setChainCondensation(config.getBooleanValue(ROAD_CHAINS_KEY, false));
+        int hierarchyThreshold = config.getIntValue(HIERARCHY_THRESHOLD_KEY, DEFAULT_HIERARCHY_THRESHOLD);
+        if (hierarchyThreshold > 0 && topology.getGraph().size() >= hierarchyThreshold) {
+            search.setHierarchy(topology.getHierarchy());
+        }
+        int landmarkCount = config.getIntValue(LANDMARKS_KEY, DEFAULT_LANDMARKS);
+        if (useAStar && landmarkCount > 0) {
+            search.setLandmarks(topology.getLandmarks(landmarkCount, landmarksFile));
         }
-        search = new SampleSearch(model);
-        neighbours = search.getGraph();
         useSpeak = config.getValue(Constants.COMMUNICATION_MODEL_KEY).equals(SPEAK_COMMUNICATION_MODEL);
         Logger.debug("Communcation model: " + config.getValue(Constants.COMMUNICATION_MODEL_KEY));
         Logger.debug(useSpeak ? "Using speak model" : "Using say model");
     }
 
     /**
-       Construct a random walk starting from this agent's current location to a random building.
-       @return A random walk.
+       Bring the search up to date with the areas that changed this timestep. Cached paths through areas with new blockades are dropped, and the passage router learns the shape of the blockades. If this agent avoids blockades then areas with blockades become impassable and areas that have been cleared become passable again. The areas are also recorded as sensed for frontier random walks, and the planning clock for this timestep starts.
+       @param changed The changes seen this timestep.
     */
-    protected List<EntityID> randomWalk() {
-        List<EntityID> result = new ArrayList<EntityID>(RANDOM_WALK_LENGTH);
-        Set<EntityID> seen = new HashSet<EntityID>();
-        EntityID current = ((Human)me()).getPosition();
-        for (int i = 0; i < RANDOM_WALK_LENGTH; ++i) {
-            result.add(current);
-            seen.add(current);
-            List<EntityID> possible = new ArrayList<EntityID>(neighbours.get(current));
-            Collections.shuffle(possible, random);
-            boolean found = false;
-            for (EntityID next : possible) {
-                if (seen.contains(next)) {
-                    continue;
+    protected void updateSearch(ChangeSet changed) {
+        thinkStart = System.currentTimeMillis();
+        walker.tick();
+        for (EntityID next : changed.getChangedEntities()) {
+            StandardEntity entity = model.getEntity(next);
+            if (entity instanceof Area) {
+                Area area = (Area)entity;
+                walker.sensed(next);
+                List<EntityID> blockades = area.isBlockadesDefined() ? area.getBlockades() : Collections.<EntityID>emptyList();
+                search.updateBlockades(next, blockades);
+                if (passages != null) {
+                    passages.setBlockades(next, blockadeShapes(blockades));
+                }
+                if (avoidBlockades) {
+                    search.setPassable(next, blockades.isEmpty());
                 }
-                current = next;
-                found = true;
-                break;
             }
-            if (!found) {
-                // We reached a dead-end.
-                break;
+        }
+    }
+
+    private List<int[]> blockadeShapes(List<EntityID> blockades) {
+        List<int[]> result = new ArrayList<int[]>(blockades.size());
+        for (EntityID next : blockades) {
+            StandardEntity entity = model.getEntity(next);
+            if (entity instanceof Blockade && ((Blockade)entity).isApexesDefined()) {
+                result.add(((Blockade)entity).getApexes());
             }
         }
         return result;
     }
+
+    /**
+       Plan a path over passages wide enough for this agent, starting from where the agent stands if it is in the start area.
+       @return The path, or null if no goal can be reached without squeezing past a blockade.
+    */
+    private SearchPath planPassagePath(EntityID start, GoalSet goals) {
+        Human human = (Human)me();
+        SearchPath result = start.equals(human.getPosition()) && human.isXDefined() && human.isYDefined() ? passages.route(start, human.getX(), human.getY(), goals) : passages.route(start, goals);
+        Logger.debug("Passage search settled " + passages.getTouchedPassages() + " passages");
+        return result;
+    }
+
+    /**
+       Plan a path to the nearest of a set of goals. Paths go over passages wide enough for this agent if passage routing is on; otherwise A* is used if this agent has opted in, or breadth first search otherwise. The search gives up in time for the command to reach the kernel within the think time; the path is then partial. Passage routing does not watch the deadline and always runs to the end.
+       @param start The location to start from.
+       @param goals The set of possible goals.
+       @return The path, or null if no path can be found.
+    */
+    protected SearchPath planPath(EntityID start, GoalSet goals) {
+        if (passages != null && usePassages) {
+            return planPassagePath(start, goals);
+        }
+        long deadline = planningDeadline();
+        SearchPath result = useAStar ? search.aStarSearch(start, goals, deadline) : search.breadthFirstSearch(start, goals, deadline);
+        logExpanded(result);
+        return result;
+    }
+
+    /**
+       Plan a path to the nearest of a set of goals. Paths go over passages wide enough for this agent if passage routing is on; otherwise A* is used if this agent has opted in, or breadth first search otherwise. The search gives up in time for the command to reach the kernel within the think time; the path is then partial. Passage routing does not watch the deadline and always runs to the end.
+       @param start The location to start from.
+       @param goals The set of possible goals.
+       @return The path, or null if no path can be found.
+    */
+    protected SearchPath planPath(EntityID start, Collection<EntityID> goals) {
+        if (passages != null && usePassages) {
+            // Refill the pooled set so nothing is allocated per call
+            passageGoals.clear();
+            passageGoals.addAll(goals);
+            return planPassagePath(start, passageGoals);
+        }
+        long deadline = planningDeadline();
+        SearchPath result = useAStar ? search.aStarSearch(start, goals, deadline) : search.breadthFirstSearch(start, goals, deadline);
+        logExpanded(result);
+        return result;
+    }
+
+    /**
+       Get the time planning must finish by this timestep: the think time less a safety margin, counted from the last call to {@link #updateSearch(ChangeSet)}.
+       @return The deadline in milliseconds, or Long.MAX_VALUE if the clock has not been started.
+    */
+    protected long planningDeadline() {
+        return thinkStart == 0 ? Long.MAX_VALUE : thinkStart + planningBudget;
+    }
+
+    /**
+       Plan a path to the nearest of a set of goals over passages or with A* if either is in use, or with an incremental planner otherwise. The planner keeps its state between timesteps so only the parts of the map affected by changes to the goals or to passability are searched again.
+       @param planner The incremental planner to use.
+       @param start The location to start from.
+       @param goals The set of possible goals.
+       @return The path, or null if no path can be found.
+    */
+    protected SearchPath planPath(IncrementalPlanner planner, EntityID start, Collection<EntityID> goals) {
+        if (useAStar || (passages != null && usePassages)) {
+            return planPath(start, goals);
+        }
+        return planner.plan(start, goals);
+    }
+
+    /**
+       Plan a path to the nearest of a set of goals over passages or with A* if either is in use, or with an incremental planner otherwise. The goal set can be a pooled one that is refilled before each call.
+       @param planner The incremental planner to use.
+       @param start The location to start from.
+       @param goals The set of possible goals.
+       @return The path, or null if no path can be found.
+    */
+    protected SearchPath planPath(IncrementalPlanner planner, EntityID start, GoalSet goals) {
+        if (useAStar || (passages != null && usePassages)) {
+            return planPath(start, goals);
+        }
+        return planner.plan(start, goals);
+    }
+
+    /**
+       Plan a path to the nearest of a set of goals using A* if this agent has opted in, or breadth first search otherwise.
+       @param start The location to start from.
+       @param goals The possible goals.
+       @return The path, or null if no path can be found.
+    */
+    protected SearchPath planPath(EntityID start, EntityID... goals) {
+        return planPath(start, Arrays.asList(goals));
+    }
+
+    /**
+       Get a grid over the area centroids of the map, shared with the other agents that use the same map topology.
+       @param cellSize The cell size, usually the range most queries ask for.
+       @return The area grid.
+    */
+    protected AreaGrid getAreaGrid(int cellSize) {
+        return topology.getAreaGrid(cellSize);
+    }
+
+    /**
+       Get the table of areas within a range of each building, shared with the other agents that use the same map topology and saved beside the map if the map directory is known.
+       @param range The largest distance between centroids, inclusive.
+       @return The reach table.
+    */
+    protected ReachTable getReachTable(int range) {
+        return topology.getReachTable(range, reachFile);
+    }
+
+    /**
+       Create an empty set of live targets over the KD-tree of the map, which is shared with the other agents that use the same map topology.
+       @return A new target mask.
+    */
+    protected TargetMask createTargetMask() {
+        return new TargetMask(topology.getAreaTree());
+    }
+
+    private void logExpanded(SearchPath result) {
+        Logger.debug((useAStar ? "A*" : "Breadth first search") + " expanded " + search.getExpandedNodes() + " nodes (path cache: " + search.getCacheHits() + " hits, " + search.getCacheMisses() + " misses)");
+        if (result != null && result.isPartial()) {
+            Logger.info("Planning ran out of time; moving along a partial path to " + result.last());
+        }
+    }
+
+    /**
+       Construct a random walk starting from this agent's current location. Each step moves to a neighbour the walk has not visited yet, preferring areas that have not been sensed recently if frontier walks are enabled.
+       @return A random walk.
+    */
+    protected SearchPath randomWalk() {
+        return walker.walk(((Human)me()).getPosition(), random);
+    }
 }
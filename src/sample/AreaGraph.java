@@ -0,0 +1,499 @@
+package sample;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import rescuecore2.worldmodel.Entity;
+import rescuecore2.worldmodel.EntityID;
+
+import rescuecore2.standard.entities.Area;
+import rescuecore2.standard.entities.Building;
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   An immutable area neighbourhood graph in compressed-sparse-row form. Every area is given a dense node index starting at zero and the neighbours of node {@code i} are stored in {@code neighbours[offsets[i]]} to {@code neighbours[offsets[i + 1] - 1]}.
+ */
+public final class AreaGraph {
+    private final EntityID[] ids;
+    private final Map<EntityID, Integer> index;
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final int[] reverseOffsets;
+    private final int[] predecessors;
+    private final boolean[] buildings;
+    private final int[] xs;
+    private final int[] ys;
+    private final boolean[] located;
+    private final double[] lengths;
+    private final boolean symmetric;
+    private final Map<EntityID, Set<EntityID>> view;
+    private CivilianGraph civilian;
+    private RoadChains chains;
+
+    private AreaGraph(EntityID[] ids, Map<EntityID, Integer> index, int[] offsets, int[] neighbours, boolean[] buildings, int[] xs, int[] ys, boolean[] located) {
+        this.ids = ids;
+        this.index = index;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.buildings = buildings;
+        this.xs = xs;
+        this.ys = ys;
+        this.located = located;
+        this.lengths = new double[neighbours.length];
+        for (int node = 0; node < ids.length; ++node) {
+            for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                lengths[i] = edgeLength(node, neighbours[i]);
+            }
+        }
+        this.reverseOffsets = new int[ids.length + 1];
+        this.predecessors = new int[neighbours.length];
+        for (int n : neighbours) {
+            ++reverseOffsets[n + 1];
+        }
+        for (int node = 0; node < ids.length; ++node) {
+            reverseOffsets[node + 1] += reverseOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(reverseOffsets, ids.length);
+        for (int node = 0; node < ids.length; ++node) {
+            for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                predecessors[fill[neighbours[i]]++] = node;
+            }
+        }
+        this.symmetric = checkSymmetric();
+        this.view = new GraphView();
+    }
+
+    /**
+       Compile the neighbour lists of all areas in a world model.
+       @param world The world model to read.
+       @return A new AreaGraph.
+    */
+    public static AreaGraph fromWorld(StandardWorldModel world) {
+        Builder builder = new Builder();
+        for (Entity next : world) {
+            if (next instanceof Area) {
+                Area area = (Area)next;
+                builder.add(next.getID(), area.getNeighbours(), next instanceof Building);
+                if (area.isXDefined() && area.isYDefined()) {
+                    builder.locate(next.getID(), area.getX(), area.getY());
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+       Compile a graph given as a map from EntityID to the set of neighbouring EntityIDs.
+       @param graph The connection graph.
+       @return A new AreaGraph.
+    */
+    public static AreaGraph fromMap(Map<EntityID, Set<EntityID>> graph) {
+        Builder builder = new Builder();
+        for (Map.Entry<EntityID, Set<EntityID>> next : graph.entrySet()) {
+            builder.add(next.getKey(), next.getValue(), false);
+        }
+        return builder.build();
+    }
+
+    /**
+       Wrap arrays that were compiled earlier, for example by a saved {@link MapTopology}. The arrays are used as they are and must not be changed afterwards.
+       @param ids The EntityID of each node.
+       @param offsets The start of the neighbours of each node in the neighbour array, followed by the length of that array.
+       @param neighbours The neighbour node indices.
+       @param buildings Per-node building flags.
+       @param xs The x coordinate of each node.
+       @param ys The y coordinate of each node.
+       @param located Per-node flags telling whether the coordinates are known.
+       @return A new AreaGraph.
+    */
+    static AreaGraph fromArrays(EntityID[] ids, int[] offsets, int[] neighbours, boolean[] buildings, int[] xs, int[] ys, boolean[] located) {
+        Map<EntityID, Integer> index = new HashMap<EntityID, Integer>(ids.length * 2);
+        for (int node = 0; node < ids.length; ++node) {
+            index.put(ids[node], node);
+        }
+        return new AreaGraph(ids, Collections.unmodifiableMap(index), offsets, neighbours, buildings, xs, ys, located);
+    }
+
+    /**
+       Get the number of nodes in the graph.
+       @return The number of nodes.
+    */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+       Get the node index of an entity.
+       @param id The EntityID to look up.
+       @return The node index, or -1 if the entity is not part of the graph.
+    */
+    public int indexOf(EntityID id) {
+        Integer result = index.get(id);
+        return result == null ? -1 : result;
+    }
+
+    /**
+       Get the EntityID of a node.
+       @param node The node index.
+       @return The EntityID of the node.
+    */
+    public EntityID idOf(int node) {
+        return ids[node];
+    }
+
+    /**
+       Get the flat ID table: the EntityID of node {@code i} is entry {@code i}. Callers must not modify it.
+       @return The ID table.
+    */
+    EntityID[] idArray() {
+        return ids;
+    }
+
+    /**
+       Get the start of a node's neighbour range in {@link #neighbourArray()}.
+       @param node The node index.
+       @return The offset of the first neighbour.
+    */
+    public int firstNeighbour(int node) {
+        return offsets[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's neighbour range in {@link #neighbourArray()}.
+       @param node The node index.
+       @return The offset one past the last neighbour.
+    */
+    public int lastNeighbour(int node) {
+        return offsets[node + 1];
+    }
+
+    /**
+       Get the flat neighbour array. Callers must not modify it.
+       @return The neighbour array.
+    */
+    int[] neighbourArray() {
+        return neighbours;
+    }
+
+    /**
+       Get the start of a node's predecessor range in {@link #predecessorArray()}. The predecessors of a node are the nodes that list it as a neighbour.
+       @param node The node index.
+       @return The offset of the first predecessor.
+    */
+    public int firstPredecessor(int node) {
+        return reverseOffsets[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's predecessor range in {@link #predecessorArray()}.
+       @param node The node index.
+       @return The offset one past the last predecessor.
+    */
+    public int lastPredecessor(int node) {
+        return reverseOffsets[node + 1];
+    }
+
+    /**
+       Get the flat predecessor array. Callers must not modify it.
+       @return The predecessor array.
+    */
+    int[] predecessorArray() {
+        return predecessors;
+    }
+
+    /**
+       Find out whether a node is a building.
+       @param node The node index.
+       @return True if the node is a building.
+    */
+    public boolean isBuilding(int node) {
+        return buildings[node];
+    }
+
+    /**
+       Find out whether the centroid of a node is known. Graphs built from a plain map have no coordinates.
+       @param node The node index.
+       @return True if the node has a centroid.
+    */
+    public boolean isLocated(int node) {
+        return located[node];
+    }
+
+    /**
+       Get the X coordinate of a node's centroid.
+       @param node The node index.
+       @return The X coordinate, or zero if the node is not located.
+    */
+    public int getX(int node) {
+        return xs[node];
+    }
+
+    /**
+       Get the Y coordinate of a node's centroid.
+       @param node The node index.
+       @return The Y coordinate, or zero if the node is not located.
+    */
+    public int getY(int node) {
+        return ys[node];
+    }
+
+    /**
+       Get the straight line distance between the centroids of two nodes.
+       @param first The first node index.
+       @param second The second node index.
+       @return The distance between the centroids.
+    */
+    public double distance(int first, int second) {
+        return Math.hypot((double)xs[first] - xs[second], (double)ys[first] - ys[second]);
+    }
+
+    /**
+       Get the flat edge length array, parallel to {@link #neighbourArray()}. Each entry is the distance between the centroids at either end, or one if either end is not located so that graphs without coordinates fall back to hop counts. Callers must not modify it.
+       @return The edge length array.
+    */
+    double[] edgeLengthArray() {
+        return lengths;
+    }
+
+    /**
+       Get the length of the edge between two nodes: the distance between their centroids, or one if either is not located.
+       @param from The first node index.
+       @param to The second node index.
+       @return The edge length.
+    */
+    public double edgeLength(int from, int to) {
+        return located[from] && located[to] ? distance(from, to) : 1;
+    }
+
+    /**
+       Find out if every edge in this graph has a matching edge in the other direction.
+       @return True if the graph is undirected.
+    */
+    public boolean isSymmetric() {
+        return symmetric;
+    }
+
+    /**
+       Get this graph with the civilian movement rule compiled in, building it on first use.
+       @return The civilian graph.
+    */
+    synchronized CivilianGraph civilianGraph() {
+        if (civilian == null) {
+            civilian = CivilianGraph.compile(this);
+        }
+        return civilian;
+    }
+
+    /**
+       Get the overlay of this graph in which chains of roads with two neighbours are condensed into single edges, building it on first use.
+       @return The road chains.
+    */
+    synchronized RoadChains roadChains() {
+        if (chains == null) {
+            chains = RoadChains.compile(this);
+        }
+        return chains;
+    }
+
+    private boolean checkSymmetric() {
+        int[] stamps = new int[ids.length];
+        for (int node = 0; node < ids.length; ++node) {
+            if (offsets[node + 1] - offsets[node] != reverseOffsets[node + 1] - reverseOffsets[node]) {
+                return false;
+            }
+            for (int i = offsets[node]; i < offsets[node + 1]; ++i) {
+                stamps[neighbours[i]] = node + 1;
+            }
+            for (int i = reverseOffsets[node]; i < reverseOffsets[node + 1]; ++i) {
+                if (stamps[predecessors[i]] != node + 1) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+       Get a read-only view of this graph as a map from EntityID to the set of neighbouring EntityIDs. Unknown keys map to an empty set.
+       @return A read-only view of the graph.
+    */
+    public Map<EntityID, Set<EntityID>> asMap() {
+        return view;
+    }
+
+    private static final class Builder {
+        private final Map<EntityID, Integer> index = new HashMap<EntityID, Integer>();
+        private final Map<EntityID, Collection<EntityID>> adjacency = new HashMap<EntityID, Collection<EntityID>>();
+        private final Map<EntityID, Boolean> buildings = new HashMap<EntityID, Boolean>();
+        private final Map<EntityID, int[]> locations = new HashMap<EntityID, int[]>();
+
+        void add(EntityID id, Collection<EntityID> areaNeighbours, boolean building) {
+            if (!index.containsKey(id)) {
+                index.put(id, index.size());
+            }
+            adjacency.put(id, areaNeighbours);
+            buildings.put(id, building);
+        }
+
+        void locate(EntityID id, int x, int y) {
+            locations.put(id, new int[] {x, y});
+        }
+
+        AreaGraph build() {
+            // Neighbours that are not areas themselves still become (isolated) nodes
+            for (Collection<EntityID> next : adjacency.values()) {
+                for (EntityID neighbour : next) {
+                    if (!index.containsKey(neighbour)) {
+                        index.put(neighbour, index.size());
+                    }
+                }
+            }
+            int size = index.size();
+            EntityID[] ids = new EntityID[size];
+            for (Map.Entry<EntityID, Integer> next : index.entrySet()) {
+                ids[next.getValue()] = next.getKey();
+            }
+            int[] offsets = new int[size + 1];
+            int[] seen = new int[size];
+            Arrays.fill(seen, -1);
+            int[] neighbours = new int[16];
+            int count = 0;
+            boolean[] building = new boolean[size];
+            int[] xs = new int[size];
+            int[] ys = new int[size];
+            boolean[] located = new boolean[size];
+            for (int node = 0; node < size; ++node) {
+                offsets[node] = count;
+                Collection<EntityID> areaNeighbours = adjacency.get(ids[node]);
+                building[node] = Boolean.TRUE.equals(buildings.get(ids[node]));
+                int[] location = locations.get(ids[node]);
+                if (location != null) {
+                    xs[node] = location[0];
+                    ys[node] = location[1];
+                    located[node] = true;
+                }
+                if (areaNeighbours == null) {
+                    continue;
+                }
+                for (EntityID next : areaNeighbours) {
+                    int n = index.get(next);
+                    if (seen[n] == node) {
+                        continue;
+                    }
+                    seen[n] = node;
+                    if (count == neighbours.length) {
+                        neighbours = Arrays.copyOf(neighbours, count * 2);
+                    }
+                    neighbours[count++] = n;
+                }
+            }
+            offsets[size] = count;
+            return new AreaGraph(ids, Collections.unmodifiableMap(index), offsets, Arrays.copyOf(neighbours, count), building, xs, ys, located);
+        }
+    }
+
+    private final class GraphView extends AbstractMap<EntityID, Set<EntityID>> {
+        private final Set<Map.Entry<EntityID, Set<EntityID>>> entries = new AbstractSet<Map.Entry<EntityID, Set<EntityID>>>() {
+            @Override
+            public Iterator<Map.Entry<EntityID, Set<EntityID>>> iterator() {
+                return new Iterator<Map.Entry<EntityID, Set<EntityID>>>() {
+                    private int node;
+
+                    @Override
+                    public boolean hasNext() {
+                        return node < ids.length;
+                    }
+
+                    @Override
+                    public Map.Entry<EntityID, Set<EntityID>> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int n = node++;
+                        return new AbstractMap.SimpleImmutableEntry<EntityID, Set<EntityID>>(ids[n], new NeighbourSet(n));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return ids.length;
+            }
+        };
+
+        @Override
+        public Set<Map.Entry<EntityID, Set<EntityID>>> entrySet() {
+            return entries;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.containsKey(key);
+        }
+
+        @Override
+        public Set<EntityID> get(Object key) {
+            Integer node = index.get(key);
+            if (node == null) {
+                return Collections.<EntityID>emptySet();
+            }
+            return new NeighbourSet(node);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+
+    private final class NeighbourSet extends AbstractSet<EntityID> {
+        private final int node;
+
+        NeighbourSet(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public Iterator<EntityID> iterator() {
+            return new Iterator<EntityID>() {
+                private int next = offsets[node];
+
+                @Override
+                public boolean hasNext() {
+                    return next < offsets[node + 1];
+                }
+
+                @Override
+                public EntityID next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return ids[neighbours[next++]];
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return offsets[node + 1] - offsets[node];
+        }
+    }
+}
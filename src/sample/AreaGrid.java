@@ -0,0 +1,192 @@
+package sample;
+
+/**
+   A uniform grid over the centroids of the areas of an {@link AreaGraph}, for finding the areas near a point without asking the world model. The areas are stored in one array sorted by cell, with their centroids beside them, so a range query only reads the cells that overlap the range and writes node indices into an array or a goal set without allocating. With the cell size equal to the range a query reads at most nine cells. Areas without a location are left out. An AreaGrid is immutable and can be shared.
+ */
+public final class AreaGrid {
+    // Cells are made larger if a grid would have more cells than this many per area
+    private static final int CELLS_PER_AREA = 4;
+
+    private final AreaGraph graph;
+    private final long cellSize;
+    private final int minX;
+    private final int minY;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] nodes;
+    private final int[] xs;
+    private final int[] ys;
+
+    private AreaGrid(AreaGraph graph, long cellSize, int minX, int minY, int columns, int rows, int[] cellStart, int[] nodes, int[] xs, int[] ys) {
+        this.graph = graph;
+        this.cellSize = cellSize;
+        this.minX = minX;
+        this.minY = minY;
+        this.columns = columns;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.nodes = nodes;
+        this.xs = xs;
+        this.ys = ys;
+    }
+
+    /**
+       Build a grid over the located areas of a graph. The cell size is doubled until the grid has no more than a few cells per area, so a small cell size on a large map cannot use up memory.
+       @param graph The graph.
+       @param cellSize The width and height of a cell. Queries are fastest when this is the range they usually ask for.
+       @return A new AreaGrid.
+    */
+    public static AreaGrid build(AreaGraph graph, int cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        int located = 0;
+        for (int node = 0; node < graph.size(); ++node) {
+            if (graph.isLocated(node)) {
+                minX = Math.min(minX, graph.getX(node));
+                minY = Math.min(minY, graph.getY(node));
+                maxX = Math.max(maxX, graph.getX(node));
+                maxY = Math.max(maxY, graph.getY(node));
+                ++located;
+            }
+        }
+        if (located == 0) {
+            return new AreaGrid(graph, cellSize, 0, 0, 1, 1, new int[2], new int[0], new int[0], new int[0]);
+        }
+        long size = cellSize;
+        while (cellsFor(maxX - (long)minX, size) * cellsFor(maxY - (long)minY, size) > (long)CELLS_PER_AREA * located + 1) {
+            size *= 2;
+        }
+        int columns = (int)cellsFor(maxX - (long)minX, size);
+        int rows = (int)cellsFor(maxY - (long)minY, size);
+        int[] cellStart = new int[columns * rows + 1];
+        int[] cells = new int[graph.size()];
+        for (int node = 0; node < graph.size(); ++node) {
+            if (graph.isLocated(node)) {
+                int cell = (int)((graph.getY(node) - (long)minY) / size) * columns + (int)((graph.getX(node) - (long)minX) / size);
+                cells[node] = cell;
+                ++cellStart[cell + 1];
+            }
+        }
+        for (int cell = 0; cell < columns * rows; ++cell) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        int[] fill = new int[columns * rows];
+        System.arraycopy(cellStart, 0, fill, 0, fill.length);
+        int[] nodes = new int[located];
+        int[] xs = new int[located];
+        int[] ys = new int[located];
+        for (int node = 0; node < graph.size(); ++node) {
+            if (graph.isLocated(node)) {
+                int i = fill[cells[node]]++;
+                nodes[i] = node;
+                xs[i] = graph.getX(node);
+                ys[i] = graph.getY(node);
+            }
+        }
+        return new AreaGrid(graph, size, minX, minY, columns, rows, cellStart, nodes, xs, ys);
+    }
+
+    private static long cellsFor(long span, long size) {
+        return span / size + 1;
+    }
+
+    /**
+       Get the graph this grid indexes.
+       @return The graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Get the width and height of a cell, which may be larger than the one asked for when the grid was built.
+       @return The cell size.
+    */
+    public long getCellSize() {
+        return cellSize;
+    }
+
+    /**
+       Find the areas whose centroid is within a distance of a point.
+       @param x The x coordinate of the point.
+       @param y The y coordinate of the point.
+       @param range The largest distance, inclusive.
+       @param out The array to write the node indices into. An array the size of the graph is always large enough.
+       @return The number of areas written.
+    */
+    public int withinRange(int x, int y, int range, int[] out) {
+        return query(x, y, range, out, null);
+    }
+
+    /**
+       Find the areas whose centroid is within a distance of the centroid of an area, such as the areas a fire brigade can extinguish a building from. The area itself is included.
+       @param node The node index of the area, or -1 if it is not part of the graph.
+       @param range The largest distance, inclusive.
+       @param out The array to write the node indices into. An array the size of the graph is always large enough.
+       @return The number of areas written, which is zero if the area is not part of the graph or has no location.
+    */
+    public int withinReach(int node, int range, int[] out) {
+        if (node < 0 || !graph.isLocated(node)) {
+            return 0;
+        }
+        return query(graph.getX(node), graph.getY(node), range, out, null);
+    }
+
+    /**
+       Replace the contents of a goal set with the areas whose centroid is within a distance of the centroid of an area.
+       @param node The node index of the area, or -1 if it is not part of the graph.
+       @param range The largest distance, inclusive.
+       @param goals The goal set to fill. It must not be frozen.
+       @return The number of goals, which is zero if the area is not part of the graph or has no location.
+    */
+    public int withinReach(int node, int range, GoalSet goals) {
+        goals.clear();
+        if (node < 0 || !graph.isLocated(node)) {
+            return 0;
+        }
+        return query(graph.getX(node), graph.getY(node), range, null, goals);
+    }
+
+    private int query(int x, int y, int range, int[] out, GoalSet goals) {
+        if (range < 0 || nodes.length == 0) {
+            return 0;
+        }
+        long left = (x - (long)range - minX) / cellSize;
+        long right = (x + (long)range - minX) / cellSize;
+        long bottom = (y - (long)range - minY) / cellSize;
+        long top = (y + (long)range - minY) / cellSize;
+        if (x + (long)range < minX || y + (long)range < minY || left >= columns || bottom >= rows) {
+            return 0;
+        }
+        int firstColumn = (int)Math.max(left, 0);
+        int lastColumn = (int)Math.min(right, columns - 1);
+        int firstRow = (int)Math.max(bottom, 0);
+        int lastRow = (int)Math.min(top, rows - 1);
+        long limit = (long)range * range;
+        int count = 0;
+        for (int row = firstRow; row <= lastRow; ++row) {
+            // The cells of a row are next to each other, so the whole row is one slice
+            int end = cellStart[row * columns + lastColumn + 1];
+            for (int i = cellStart[row * columns + firstColumn]; i < end; ++i) {
+                long dx = xs[i] - (long)x;
+                long dy = ys[i] - (long)y;
+                if (dx * dx + dy * dy <= limit) {
+                    if (goals == null) {
+                        out[count] = nodes[i];
+                    }
+                    else {
+                        goals.add(nodes[i]);
+                    }
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,155 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   A KD-tree over the centroids of the areas of an {@link AreaGraph}, for finding the nearest areas to a point. The tree is stored implicitly in flat arrays: the located areas are laid out so that each range of positions is a subtree whose root is the middle position, split alternately by x and y, and every subtree root stores the bounding box of its subtree. Which areas are wanted is kept outside the tree by {@link TargetMask}s, so one tree can be shared by every agent. Areas without a location are left out.
+ */
+public final class AreaTree {
+    private final AreaGraph graph;
+    private final int[] nodes;
+    private final int[] positionOf;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] minXs;
+    private final int[] minYs;
+    private final int[] maxXs;
+    private final int[] maxYs;
+
+    private AreaTree(AreaGraph graph, int[] nodes) {
+        this.graph = graph;
+        this.nodes = nodes;
+        int count = nodes.length;
+        positionOf = new int[graph.size()];
+        xs = new int[count];
+        ys = new int[count];
+        minXs = new int[count];
+        minYs = new int[count];
+        maxXs = new int[count];
+        maxYs = new int[count];
+        Arrays.fill(positionOf, -1);
+        for (int i = 0; i < count; ++i) {
+            positionOf[nodes[i]] = i;
+            xs[i] = graph.getX(nodes[i]);
+            ys[i] = graph.getY(nodes[i]);
+        }
+        if (count > 0) {
+            computeBounds(0, count);
+        }
+    }
+
+    /**
+       Build a tree over the located areas of a graph.
+       @param graph The graph.
+       @return A new AreaTree.
+    */
+    public static AreaTree build(AreaGraph graph) {
+        int count = 0;
+        int[] nodes = new int[graph.size()];
+        for (int node = 0; node < graph.size(); ++node) {
+            if (graph.isLocated(node)) {
+                nodes[count++] = node;
+            }
+        }
+        nodes = Arrays.copyOf(nodes, count);
+        split(graph, nodes, new long[count], 0, count, true);
+        return new AreaTree(graph, nodes);
+    }
+
+    /**
+       Lay out a range of nodes as a subtree: sort it along one axis so the median is in the middle, then lay out each half along the other axis.
+    */
+    private static void split(AreaGraph graph, int[] nodes, long[] keys, int low, int high, boolean byX) {
+        if (high - low <= 1) {
+            return;
+        }
+        for (int i = low; i < high; ++i) {
+            long coordinate = byX ? graph.getX(nodes[i]) : graph.getY(nodes[i]);
+            keys[i] = (coordinate << 32) | nodes[i];
+        }
+        Arrays.sort(keys, low, high);
+        for (int i = low; i < high; ++i) {
+            nodes[i] = (int)keys[i];
+        }
+        int middle = (low + high) >>> 1;
+        split(graph, nodes, keys, low, middle, !byX);
+        split(graph, nodes, keys, middle + 1, high, !byX);
+    }
+
+    private void computeBounds(int low, int high) {
+        int middle = (low + high) >>> 1;
+        minXs[middle] = xs[middle];
+        maxXs[middle] = xs[middle];
+        minYs[middle] = ys[middle];
+        maxYs[middle] = ys[middle];
+        if (low < middle) {
+            computeBounds(low, middle);
+            include(middle, (low + middle) >>> 1);
+        }
+        if (middle + 1 < high) {
+            computeBounds(middle + 1, high);
+            include(middle, (middle + 1 + high) >>> 1);
+        }
+    }
+
+    private void include(int root, int child) {
+        minXs[root] = Math.min(minXs[root], minXs[child]);
+        maxXs[root] = Math.max(maxXs[root], maxXs[child]);
+        minYs[root] = Math.min(minYs[root], minYs[child]);
+        maxYs[root] = Math.max(maxYs[root], maxYs[child]);
+    }
+
+    /**
+       Get the graph this tree indexes.
+       @return The graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Get the number of areas in the tree.
+       @return The number of located areas.
+    */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+       Get the position of an area in the tree.
+       @param node The node index.
+       @return The position, or -1 if the area has no location.
+    */
+    int positionOf(int node) {
+        return positionOf[node];
+    }
+
+    /**
+       Get the area at a position in the tree.
+       @param position The position.
+       @return The node index.
+    */
+    int nodeAt(int position) {
+        return nodes[position];
+    }
+
+    /**
+       Get the squared distance from a point to the centroid of the area at a position.
+       @return The squared distance.
+    */
+    long distanceTo(int position, int x, int y) {
+        long dx = xs[position] - (long)x;
+        long dy = ys[position] - (long)y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+       Get the squared distance from a point to the bounding box of the subtree rooted at a position.
+       @return The squared distance, which is zero if the point is inside the box.
+    */
+    long boxDistanceTo(int position, int x, int y) {
+        long dx = Math.max(0, Math.max(minXs[position] - (long)x, x - (long)maxXs[position]));
+        long dy = Math.max(0, Math.max(minYs[position] - (long)y, y - (long)maxYs[position]));
+        return dx * dx + dy * dy;
+    }
+}
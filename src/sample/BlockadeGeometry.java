@@ -0,0 +1,142 @@
+package sample;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import rescuecore2.worldmodel.ChangeSet;
+import rescuecore2.worldmodel.EntityID;
+
+import rescuecore2.standard.entities.Blockade;
+import rescuecore2.standard.entities.StandardPropertyURN;
+
+/**
+   A cache of the outlines of blockades, for finding the point of a blockade nearest a point without building geometry objects. Each outline is stored as a flat array of its closed sequence of segments, with the start and direction of each segment, and is kept until the blockade's apexes change or the blockade is deleted. Entries are also checked against a hash of the apexes, so an outline is never used after the apexes change, even if the change set was not seen.
+ */
+public final class BlockadeGeometry {
+    // Each segment is stored as start x, start y, direction x, direction y
+    private static final int STRIDE = 4;
+
+    private final Map<EntityID, Outline> outlines;
+
+    /**
+       Create an empty cache.
+    */
+    public BlockadeGeometry() {
+        outlines = new HashMap<EntityID, Outline>();
+    }
+
+    /**
+       Forget the outlines of blockades whose apexes have changed or that have been deleted.
+       @param changed The changes seen this timestep.
+    */
+    public void update(ChangeSet changed) {
+        String apexes = StandardPropertyURN.APEXES.toString();
+        for (EntityID next : changed.getChangedEntities()) {
+            if (changed.getChangedProperty(next, apexes) != null) {
+                outlines.remove(next);
+            }
+        }
+        for (EntityID next : changed.getDeletedEntities()) {
+            outlines.remove(next);
+        }
+    }
+
+    /**
+       Find the distance from a point to the outline of a blockade.
+       @param blockade The blockade.
+       @param x The x coordinate of the point.
+       @param y The y coordinate of the point.
+       @return The distance, or Double.MAX_VALUE if the blockade has no apexes.
+    */
+    public double distance(Blockade blockade, double x, double y) {
+        double[] segments = outline(blockade);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < segments.length; i += STRIDE) {
+            double t = position(segments, i, x, y);
+            best = Math.min(best, Math.hypot(segments[i] + t * segments[i + 2] - x, segments[i + 1] + t * segments[i + 3] - y));
+        }
+        return best;
+    }
+
+    /**
+       Find the point on the outline of a blockade nearest a point.
+       @param blockade The blockade.
+       @param x The x coordinate of the point.
+       @param y The y coordinate of the point.
+       @param closest An array of at least two entries to write the x and y coordinates of the nearest point into.
+       @return False if the blockade has no apexes, in which case nothing is written.
+    */
+    public boolean closestPoint(Blockade blockade, double x, double y, double[] closest) {
+        double[] segments = outline(blockade);
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < segments.length; i += STRIDE) {
+            double t = position(segments, i, x, y);
+            double px = segments[i] + t * segments[i + 2];
+            double py = segments[i + 1] + t * segments[i + 3];
+            double d = Math.hypot(px - x, py - y);
+            if (d < best) {
+                best = d;
+                closest[0] = px;
+                closest[1] = py;
+            }
+        }
+        return segments.length > 0;
+    }
+
+    /**
+       Get the outline of a blockade, working it out again if the apexes have changed since it was cached.
+    */
+    private double[] outline(Blockade blockade) {
+        int[] apexes = blockade.isApexesDefined() ? blockade.getApexes() : null;
+        int hash = Arrays.hashCode(apexes);
+        Outline cached = outlines.get(blockade.getID());
+        if (cached != null && cached.hash == hash) {
+            return cached.segments;
+        }
+        double[] segments = segments(apexes);
+        outlines.put(blockade.getID(), new Outline(hash, segments));
+        return segments;
+    }
+
+    /**
+       Turn a flat array of apex coordinates into the segments of a closed outline.
+    */
+    private static double[] segments(int[] apexes) {
+        int points = apexes == null ? 0 : apexes.length / 2;
+        double[] segments = new double[points * STRIDE];
+        for (int p = 0; p < points; ++p) {
+            int q = (p + 1) % points;
+            segments[p * STRIDE] = apexes[2 * p];
+            segments[p * STRIDE + 1] = apexes[2 * p + 1];
+            segments[p * STRIDE + 2] = apexes[2 * q] - (double)apexes[2 * p];
+            segments[p * STRIDE + 3] = apexes[2 * q + 1] - (double)apexes[2 * p + 1];
+        }
+        return segments;
+    }
+
+    /**
+       Find how far along a segment the point nearest a point lies.
+       @return The position, from 0 at the start of the segment to 1 at its end.
+    */
+    private static double position(double[] segments, int i, double x, double y) {
+        double dx = segments[i + 2];
+        double dy = segments[i + 3];
+        double squared = dx * dx + dy * dy;
+        if (squared == 0) {
+            return 0;
+        }
+        double t = ((x - segments[i]) * dx + (y - segments[i + 1]) * dy) / squared;
+        return Math.max(0, Math.min(1, t));
+    }
+
+    private static final class Outline {
+        final int hash;
+        final double[] segments;
+
+        Outline(int hash, double[] segments) {
+            this.hash = hash;
+            this.segments = segments;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   Answers breadth first search queries on the {@link RoadChains} overlay of a graph. A query runs Dijkstra with a bucket queue over the core areas only, with each chain counted as the number of areas on it, and expands the chains on the winning path back into areas. For every chain the router keeps the first and last impassable area inside it; these are recomputed when an area inside the chain changes passability, so a chain with an impassable area is only followed up to that area. Goals inside chains are found from per-chain marks taken once per goal set. Paths have the same length as those of a breadth first search.
+ */
+final class ChainRouter {
+    private static final int NO_PARENT = -1;
+    private static final int FROM_START_FORWARD = -2;
+    private static final int FROM_START_BACKWARD = -3;
+
+    private final RoadChains chains;
+    private final boolean[] blocked;
+    private final int[] firstBlocked;
+    private final int[] lastBlocked;
+    private final boolean[] stale;
+    private final int[] firstGoal;
+    private final int[] lastGoal;
+    private final int[] goalStamps;
+    private final int[] distances;
+    private final int[] parents;
+    private final int[] seen;
+    private final int[] arcStack;
+    private final IntBucketQueue queue;
+    private GoalSet markedGoals;
+    private int goalEpoch;
+    private int epoch;
+    private int touched;
+
+    /**
+       Create a router.
+       @param chains The shared overlay.
+       @param size The number of nodes in the graph.
+       @param blocked Per-node impassable flags, owned and kept up to date by the search.
+    */
+    ChainRouter(RoadChains chains, int size, boolean[] blocked) {
+        this.chains = chains;
+        this.blocked = blocked;
+        int count = chains.getChainCount();
+        firstBlocked = new int[count];
+        lastBlocked = new int[count];
+        stale = new boolean[count];
+        firstGoal = new int[count];
+        lastGoal = new int[count];
+        goalStamps = new int[count];
+        distances = new int[size];
+        parents = new int[size];
+        seen = new int[size];
+        arcStack = new int[Math.max(size, 1)];
+        int longest = 0;
+        for (int chain = 0; chain < count; ++chain) {
+            longest = Math.max(longest, chains.sizeOf(chain));
+        }
+        // No arc is longer than the longest chain plus the step out of it
+        queue = new IntBucketQueue(size, longest + 1);
+        Arrays.fill(stale, true);
+    }
+
+    /**
+       Note that the passability of an area has changed. If the area lies inside a chain, the chain's impassable areas are found again before it is next followed.
+       @param node The node index.
+    */
+    void invalidate(int node) {
+        int chain = chains.chainOf(node);
+        if (chain >= 0) {
+            stale[chain] = true;
+        }
+    }
+
+    /**
+       Get the number of core areas the last query settled.
+       @return The number of areas.
+    */
+    int getTouchedNodes() {
+        return touched;
+    }
+
+    /**
+       Find a shortest path, in number of areas, from a start node to the nearest goal.
+       @param start The start node index.
+       @param goals The goals.
+       @param path The array to write the path into, excluding the start unless the start is a goal.
+       @return The length of the path, or -1 if no goal can be reached.
+    */
+    int route(int start, GoalSet goals, int[] path) {
+        touched = 0;
+        if (goals.contains(start)) {
+            path[0] = start;
+            return 1;
+        }
+        markGoals(goals);
+        nextEpoch();
+        queue.clear();
+        // The best goal found inside a chain so far: the arc or start direction that leads to it and its position along that direction
+        int best = Integer.MAX_VALUE;
+        int bestNode = -1;
+        int bestArc = NO_PARENT;
+        int bestPosition = -1;
+        int startChain = chains.chainOf(start);
+        if (startChain < 0) {
+            reach(start, 0, NO_PARENT);
+        }
+        else {
+            int size = chains.sizeOf(startChain);
+            int position = chains.positionOf(start);
+            int stop = scan(startChain, position + 1, 1, goals);
+            if (stop < size) {
+                if (goals.contains(chains.nodeAt(startChain, stop))) {
+                    best = stop - position;
+                    bestArc = FROM_START_FORWARD;
+                    bestPosition = stop;
+                }
+            }
+            else {
+                reach(chains.chainTo(startChain), size - position, FROM_START_FORWARD);
+            }
+            stop = scan(startChain, position - 1, -1, goals);
+            if (stop >= 0) {
+                if (goals.contains(chains.nodeAt(startChain, stop)) && position - stop < best) {
+                    best = position - stop;
+                    bestArc = FROM_START_BACKWARD;
+                    bestPosition = stop;
+                }
+            }
+            else {
+                reach(chains.chainFrom(startChain), position + 1, FROM_START_BACKWARD);
+            }
+        }
+        while (!queue.isEmpty() && queue.peekKey() < best) {
+            int next = queue.poll();
+            int d = distances[next];
+            ++touched;
+            if (goals.contains(next)) {
+                best = d;
+                bestNode = next;
+                bestArc = NO_PARENT;
+                break;
+            }
+            if (blocked[next] && next != start) {
+                // An impassable area can be left but not passed through
+                continue;
+            }
+            for (int arc = chains.firstArc(next); arc < chains.lastArc(next); ++arc) {
+                int chain = chains.chainOfArc(arc);
+                if (chain < 0) {
+                    reach(chains.targetOf(arc), d + 1, arc);
+                    continue;
+                }
+                refresh(chain);
+                int size = chains.sizeOf(chain);
+                boolean reversed = chains.isReversed(arc);
+                int goal = size;
+                int wall = reversed ? size - 1 - lastBlocked[chain] : firstBlocked[chain];
+                if (goalStamps[chain] == goalEpoch) {
+                    goal = reversed ? size - 1 - lastGoal[chain] : firstGoal[chain];
+                }
+                if (goal < size && goal <= wall) {
+                    // Goals can be entered even if they are impassable
+                    if (d + goal + 1 < best) {
+                        best = d + goal + 1;
+                        bestNode = -1;
+                        bestArc = arc;
+                        bestPosition = goal;
+                    }
+                }
+                else if (wall == size) {
+                    reach(chains.targetOf(arc), d + size + 1, arc);
+                }
+            }
+        }
+        if (best == Integer.MAX_VALUE) {
+            return -1;
+        }
+        if (bestArc == FROM_START_FORWARD || bestArc == FROM_START_BACKWARD) {
+            int step = bestArc == FROM_START_FORWARD ? 1 : -1;
+            int length = 0;
+            for (int position = chains.positionOf(start) + step; position != bestPosition + step; position += step) {
+                path[length++] = chains.nodeAt(startChain, position);
+            }
+            return length;
+        }
+        return unpack(start, bestNode, bestArc, bestPosition, path);
+    }
+
+    /**
+       Walk along a chain from a position until reaching a goal, an impassable area or the end of the chain.
+       @return The position where the walk stopped, which is -1 or the size of the chain if it ran off the end.
+    */
+    private int scan(int chain, int position, int step, GoalSet goals) {
+        int size = chains.sizeOf(chain);
+        while (position >= 0 && position < size) {
+            int node = chains.nodeAt(chain, position);
+            if (goals.contains(node) || blocked[node]) {
+                break;
+            }
+            position += step;
+        }
+        return position;
+    }
+
+    private void reach(int node, int distance, int parent) {
+        if (seen[node] != epoch || distance < distances[node]) {
+            seen[node] = epoch;
+            distances[node] = distance;
+            parents[node] = parent;
+            queue.offer(node, distance);
+        }
+    }
+
+    /**
+       Write the path that ends at a core goal, or part way along an arc, into an array.
+       @return The length of the path.
+    */
+    private int unpack(int start, int goalNode, int lastArc, int lastPosition, int[] path) {
+        int node = goalNode >= 0 ? goalNode : chains.sourceOf(lastArc);
+        int arcs = 0;
+        while (parents[node] >= 0) {
+            arcStack[arcs++] = parents[node];
+            node = chains.sourceOf(parents[node]);
+        }
+        int length = 0;
+        if (parents[node] != NO_PARENT) {
+            // The path leaves the chain the start lies inside
+            int chain = chains.chainOf(start);
+            if (parents[node] == FROM_START_FORWARD) {
+                for (int position = chains.positionOf(start) + 1; position < chains.sizeOf(chain); ++position) {
+                    path[length++] = chains.nodeAt(chain, position);
+                }
+            }
+            else {
+                for (int position = chains.positionOf(start) - 1; position >= 0; --position) {
+                    path[length++] = chains.nodeAt(chain, position);
+                }
+            }
+            path[length++] = node;
+        }
+        while (arcs > 0) {
+            length = expand(arcStack[--arcs], -1, path, length);
+        }
+        if (goalNode < 0) {
+            length = expand(lastArc, lastPosition, path, length);
+        }
+        return length;
+    }
+
+    /**
+       Append the areas of an arc to a path, either all of them up to its target or only those up to a position inside its chain.
+       @return The new length of the path.
+    */
+    private int expand(int arc, int stop, int[] path, int length) {
+        int chain = chains.chainOfArc(arc);
+        if (chain >= 0) {
+            int size = chains.sizeOf(chain);
+            int last = stop < 0 ? size - 1 : stop;
+            for (int i = 0; i <= last; ++i) {
+                path[length++] = chains.nodeAt(chain, chains.isReversed(arc) ? size - 1 - i : i);
+            }
+            if (stop >= 0) {
+                return length;
+            }
+        }
+        path[length++] = chains.targetOf(arc);
+        return length;
+    }
+
+    /**
+       Find the first and last impassable areas inside a chain again if any area inside it has changed passability.
+    */
+    private void refresh(int chain) {
+        if (!stale[chain]) {
+            return;
+        }
+        int size = chains.sizeOf(chain);
+        firstBlocked[chain] = size;
+        lastBlocked[chain] = -1;
+        for (int i = 0; i < size; ++i) {
+            if (blocked[chains.nodeAt(chain, i)]) {
+                firstBlocked[chain] = Math.min(firstBlocked[chain], i);
+                lastBlocked[chain] = i;
+            }
+        }
+        stale[chain] = false;
+    }
+
+    /**
+       Mark the chains that have goals inside them with the first and last such goal. A frozen goal set is only marked once, however many queries use it.
+    */
+    private void markGoals(GoalSet goals) {
+        if (goals == markedGoals && goals.getId() != 0) {
+            return;
+        }
+        markedGoals = goals;
+        if (++goalEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(goalStamps, 0);
+            goalEpoch = 1;
+        }
+        for (int i = 0; i < goals.size(); ++i) {
+            int goal = goals.get(i);
+            int chain = chains.chainOf(goal);
+            if (chain < 0) {
+                continue;
+            }
+            int position = chains.positionOf(goal);
+            if (goalStamps[chain] != goalEpoch) {
+                goalStamps[chain] = goalEpoch;
+                firstGoal[chain] = position;
+                lastGoal[chain] = position;
+            }
+            else {
+                firstGoal[chain] = Math.min(firstGoal[chain], position);
+                lastGoal[chain] = Math.max(lastGoal[chain], position);
+            }
+        }
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            epoch = 1;
+        }
+    }
+}
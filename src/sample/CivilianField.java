@@ -0,0 +1,89 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   The next hop from every area towards the nearest goal under the civilian movement rule, built with one reverse breadth first search over a {@link CivilianGraph}. Routing a civilian is then a walk along next-hop pointers. Paths have the same length as those of {@link SampleSearch#breadthFirstSearchForCivilian(rescuecore2.worldmodel.EntityID, GoalSet)}. A field is never repaired: it is immutable once built, so one field can be shared by every civilian on a map, and a search that sees passability change simply builds a new one.
+ */
+final class CivilianField {
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final GoalSet goals;
+    private final int[] distances;
+    private final int[] nextHops;
+
+    /**
+       Build a civilian field.
+       @param graph The compiled civilian graph.
+       @param size The number of nodes.
+       @param goals The goal set.
+       @param blocked Per-node impassable flags.
+    */
+    CivilianField(CivilianGraph graph, int size, GoalSet goals, boolean[] blocked) {
+        this.goals = goals;
+        distances = new int[size];
+        nextHops = new int[size];
+        Arrays.fill(distances, UNREACHABLE);
+        Arrays.fill(nextHops, -1);
+        int[] sources = graph.sourceArray();
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < goals.size(); ++i) {
+            distances[goals.get(i)] = 0;
+            queue[tail++] = goals.get(i);
+        }
+        while (head < tail) {
+            int next = queue[head++];
+            int last;
+            if (goals.contains(next)) {
+                // Goals can be entered over any edge, even if they are impassable
+                last = graph.lastSource(next);
+            }
+            else if (!blocked[next]) {
+                last = graph.firstEntrySource(next);
+            }
+            else {
+                continue;
+            }
+            int d = distances[next] + 1;
+            for (int i = graph.firstSource(next); i < last; ++i) {
+                int previous = sources[i];
+                if (distances[previous] == UNREACHABLE) {
+                    distances[previous] = d;
+                    nextHops[previous] = next;
+                    queue[tail++] = previous;
+                }
+            }
+        }
+    }
+
+    /**
+       Get the goal set this field routes to.
+       @return The goal set.
+    */
+    GoalSet getGoals() {
+        return goals;
+    }
+
+    /**
+       Write the path from a node to the nearest goal into an array.
+       @param start The node index we start at.
+       @param path The array to write into.
+       @return The length of the path, or -1 if no goal can be reached.
+    */
+    int pathFrom(int start, int[] path) {
+        if (distances[start] == UNREACHABLE) {
+            return -1;
+        }
+        if (distances[start] == 0) {
+            path[0] = start;
+            return 1;
+        }
+        int length = 0;
+        for (int next = nextHops[start]; next >= 0; next = nextHops[next]) {
+            path[length++] = next;
+        }
+        return length;
+    }
+}
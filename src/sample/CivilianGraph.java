@@ -0,0 +1,153 @@
+package sample;
+
+/**
+   The civilian movement rule compiled into a directed graph over the nodes of an {@link AreaGraph}. Civilians may leave a building for any neighbour but may only enter a building if it is one of their goals. The edges of each node are split into free edges, which a civilian may always follow, and entry edges from a road into a building, which only lead somewhere if the building is a goal. The predecessors of each node are split the same way, so searches over this graph never have to look at area types.
+ */
+final class CivilianGraph {
+    private final int[] offsets;
+    private final int[] entries;
+    private final int[] targets;
+    private final int[] reverseOffsets;
+    private final int[] reverseEntries;
+    private final int[] sources;
+
+    private CivilianGraph(int[] offsets, int[] entries, int[] targets, int[] reverseOffsets, int[] reverseEntries, int[] sources) {
+        this.offsets = offsets;
+        this.entries = entries;
+        this.targets = targets;
+        this.reverseOffsets = reverseOffsets;
+        this.reverseEntries = reverseEntries;
+        this.sources = sources;
+    }
+
+    /**
+       Compile the civilian rule for a graph.
+       @param graph The graph.
+       @return A new CivilianGraph.
+    */
+    static CivilianGraph compile(AreaGraph graph) {
+        int size = graph.size();
+        int[] neighbours = graph.neighbourArray();
+        int[] offsets = new int[size + 1];
+        int[] entries = new int[size];
+        int[] targets = new int[neighbours.length];
+        int[] freeIn = new int[size];
+        int[] entryIn = new int[size];
+        for (int node = 0; node < size; ++node) {
+            int first = graph.firstNeighbour(node);
+            int last = graph.lastNeighbour(node);
+            offsets[node] = first;
+            // Free edges fill the range from the front and entry edges from the back
+            int front = first;
+            int back = last;
+            for (int i = first; i < last; ++i) {
+                int neighbour = neighbours[i];
+                if (isFree(graph, node, neighbour)) {
+                    targets[front++] = neighbour;
+                    ++freeIn[neighbour];
+                }
+                else {
+                    targets[--back] = neighbour;
+                    ++entryIn[neighbour];
+                }
+            }
+            entries[node] = front;
+        }
+        offsets[size] = neighbours.length;
+        int[] reverseOffsets = new int[size + 1];
+        int[] reverseEntries = new int[size];
+        for (int node = 0; node < size; ++node) {
+            reverseEntries[node] = reverseOffsets[node] + freeIn[node];
+            reverseOffsets[node + 1] = reverseEntries[node] + entryIn[node];
+        }
+        int[] sources = new int[neighbours.length];
+        // Reuse the counters as fill positions
+        for (int node = 0; node < size; ++node) {
+            freeIn[node] = reverseOffsets[node];
+            entryIn[node] = reverseEntries[node];
+        }
+        for (int node = 0; node < size; ++node) {
+            for (int i = offsets[node]; i < entries[node]; ++i) {
+                sources[freeIn[targets[i]]++] = node;
+            }
+            for (int i = entries[node]; i < offsets[node + 1]; ++i) {
+                sources[entryIn[targets[i]]++] = node;
+            }
+        }
+        return new CivilianGraph(offsets, entries, targets, reverseOffsets, reverseEntries, sources);
+    }
+
+    private static boolean isFree(AreaGraph graph, int from, int to) {
+        return graph.isBuilding(from) || !graph.isBuilding(to);
+    }
+
+    /**
+       Get the start of a node's free edges in {@link #targetArray()}.
+       @param node The node index.
+       @return The offset of the first free edge.
+    */
+    int firstEdge(int node) {
+        return offsets[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's free edges, which is also the start of its entry edges.
+       @param node The node index.
+       @return The offset of the first entry edge.
+    */
+    int firstEntry(int node) {
+        return entries[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's entry edges.
+       @param node The node index.
+       @return The offset one past the last edge.
+    */
+    int lastEdge(int node) {
+        return offsets[node + 1];
+    }
+
+    /**
+       Get the flat edge target array. Callers must not modify it.
+       @return The target array.
+    */
+    int[] targetArray() {
+        return targets;
+    }
+
+    /**
+       Get the start of the sources of a node's incoming free edges in {@link #sourceArray()}.
+       @param node The node index.
+       @return The offset of the first free predecessor.
+    */
+    int firstSource(int node) {
+        return reverseOffsets[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's free predecessors, which is also the start of the predecessors that can only enter the node if it is a goal.
+       @param node The node index.
+       @return The offset of the first entry predecessor.
+    */
+    int firstEntrySource(int node) {
+        return reverseEntries[node];
+    }
+
+    /**
+       Get the end (exclusive) of a node's predecessors.
+       @param node The node index.
+       @return The offset one past the last predecessor.
+    */
+    int lastSource(int node) {
+        return reverseOffsets[node + 1];
+    }
+
+    /**
+       Get the flat predecessor array. Callers must not modify it.
+       @return The source array.
+    */
+    int[] sourceArray() {
+        return sources;
+    }
+}
@@ -0,0 +1,408 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   Labels the connected components of the passable part of an {@link AreaGraph} so that a search whose goals cannot be reached is rejected before it starts. There are two labellings: one over all passable areas for ordinary searches, and one over passable roads for civilians, who may only enter a building if it is a goal. When the passability of an area changes only the components it joins or splits are labelled again, and a change that leaves every component as it was only looks at the area's neighbours. For a directed graph the labels are weakly connected components, so a query may be let through that then fails, but a reachable goal is never rejected.
+ */
+final class ConnectivityIndex {
+    // Masks are cached in a table indexed by the low bits of the goal set ID, so this must be a power of two
+    private static final int MAX_CACHED_MASKS = 64;
+
+    private final AreaGraph graph;
+    private final boolean[] blocked;
+    private final int[] components;
+    private final int[] roadComponents;
+    private final int[] queue;
+    private final int[] seen;
+    private final int[] exits;
+    private final int[] maskIds;
+    private final long[][] masks;
+    private final int[] roadMaskIds;
+    private final long[][] roadMasks;
+    private int componentCount;
+    private int roadComponentCount;
+    private int epoch;
+    private boolean dirty;
+
+    /**
+       Create a connectivity index.
+       @param graph The graph.
+       @param blocked Per-node impassable flags, owned and kept up to date by the search.
+    */
+    ConnectivityIndex(AreaGraph graph, boolean[] blocked) {
+        this.graph = graph;
+        this.blocked = blocked;
+        int size = graph.size();
+        components = new int[size];
+        roadComponents = new int[size];
+        queue = new int[Math.max(size, 1)];
+        seen = new int[size];
+        exits = new int[Math.max(size, 1)];
+        maskIds = new int[MAX_CACHED_MASKS];
+        masks = new long[MAX_CACHED_MASKS][];
+        roadMaskIds = new int[MAX_CACHED_MASKS];
+        roadMasks = new long[MAX_CACHED_MASKS][];
+        dirty = true;
+    }
+
+    /**
+       Note that the passability of an area has changed, and repair the components it touches.
+       @param node The node index of the area.
+    */
+    void invalidate(int node) {
+        Arrays.fill(maskIds, 0);
+        Arrays.fill(roadMaskIds, 0);
+        if (dirty) {
+            return;
+        }
+        componentCount = repair(components, false, componentCount, node);
+        roadComponentCount = repair(roadComponents, true, roadComponentCount, node);
+    }
+
+    /**
+       Repair one labelling after an area changed passability. An area that joins the labelling takes the label of its neighbours, or a new label if it has none, and only merges components by a search if its neighbours have different labels. An area that leaves it can only split its component if it had more than one labelled neighbour, in which case the component is searched again from each neighbour. If new labels run out the whole graph is labelled again before the next query.
+       @return The new number of labels in use.
+    */
+    private int repair(int[] labels, boolean civilian, int count, int node) {
+        if (dirty || (labels[node] >= 0) == isLabelled(node, civilian)) {
+            return count;
+        }
+        if (labels[node] < 0) {
+            int found = touching(labels, node);
+            if (found == 0) {
+                if (count == graph.size()) {
+                    dirty = true;
+                    return count;
+                }
+                labels[node] = count;
+                return count + 1;
+            }
+            int label = exits[0];
+            for (int i = 1; i < found; ++i) {
+                label = Math.min(label, exits[i]);
+            }
+            if (found == 1) {
+                labels[node] = label;
+                return count;
+            }
+            nextEpoch();
+            flood(labels, civilian, node, label);
+            return count;
+        }
+        int label = labels[node];
+        labels[node] = -1;
+        if (adjacent(labels, node) <= 1) {
+            return count;
+        }
+        // Every neighbour was in the old component; the first keeps its label and any not reached from it starts a new component
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        nextEpoch();
+        boolean kept = false;
+        for (int pass = 0; pass < 2; ++pass) {
+            int[] others = pass == 0 ? neighbours : predecessors;
+            int first = pass == 0 ? graph.firstNeighbour(node) : graph.firstPredecessor(node);
+            int last = pass == 0 ? graph.lastNeighbour(node) : graph.lastPredecessor(node);
+            for (int i = first; i < last; ++i) {
+                int other = others[i];
+                if (labels[other] < 0 || seen[other] == epoch) {
+                    continue;
+                }
+                if (kept) {
+                    if (count == graph.size()) {
+                        dirty = true;
+                        return count;
+                    }
+                    label = count++;
+                }
+                flood(labels, civilian, other, label);
+                kept = true;
+            }
+        }
+        return count;
+    }
+
+    /**
+       Collect the distinct labels of the labelled neighbours and predecessors of a node into the exits array.
+       @return The number of distinct labels.
+    */
+    private int touching(int[] labels, int node) {
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        int found = 0;
+        for (int pass = 0; pass < 2; ++pass) {
+            int[] others = pass == 0 ? neighbours : predecessors;
+            int first = pass == 0 ? graph.firstNeighbour(node) : graph.firstPredecessor(node);
+            int last = pass == 0 ? graph.lastNeighbour(node) : graph.lastPredecessor(node);
+            for (int i = first; i < last; ++i) {
+                int label = labels[others[i]];
+                if (label >= 0 && !isExit(label, found)) {
+                    exits[found++] = label;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+       Count the labelled neighbours and predecessors of a node. A node that is both is counted twice.
+    */
+    private int adjacent(int[] labels, int node) {
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        int found = 0;
+        for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+            if (labels[neighbours[i]] >= 0) {
+                ++found;
+            }
+        }
+        for (int i = graph.firstPredecessor(node); i < graph.lastPredecessor(node); ++i) {
+            if (labels[predecessors[i]] >= 0) {
+                ++found;
+            }
+        }
+        return found;
+    }
+
+    /**
+       Find out if any goal might be reachable from a start node under the same rules as the searches.
+       @param start The start node index.
+       @param goals The goals.
+       @param civilian Whether to apply the civilian rule that buildings may only be entered if they are goals.
+       @return False if no goal can be reached.
+    */
+    boolean canReach(int start, GoalSet goals, boolean civilian) {
+        if (goals.isEmpty()) {
+            return false;
+        }
+        if (goals.contains(start)) {
+            return true;
+        }
+        if (dirty) {
+            relabel();
+        }
+        int count = civilian ? civilianExits(start, goals) : exits(start, goals);
+        if (count < 0) {
+            // A goal is next to the start
+            return true;
+        }
+        if (count == 0) {
+            return false;
+        }
+        int id = goals.getId();
+        if (id == 0) {
+            return reachesAny(goals, civilian, count);
+        }
+        // Frozen goal sets have IDs from one counter, so the sets in use at once rarely share a slot
+        int[] ids = civilian ? roadMaskIds : maskIds;
+        long[][] cache = civilian ? roadMasks : masks;
+        int slot = id & (MAX_CACHED_MASKS - 1);
+        if (ids[slot] != id) {
+            if (cache[slot] == null) {
+                cache[slot] = new long[(graph.size() + 63) >>> 6];
+            }
+            buildMask(goals, civilian, cache[slot]);
+            ids[slot] = id;
+        }
+        long[] mask = cache[slot];
+        for (int i = 0; i < count; ++i) {
+            if ((mask[exits[i] >>> 6] & (1L << exits[i])) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+       Collect the components a search from a start node can move into.
+       @return The number of component labels written to the exits array, or -1 if a goal is next to the start.
+    */
+    private int exits(int start, GoalSet goals) {
+        if (!blocked[start]) {
+            exits[0] = components[start];
+            return 1;
+        }
+        // An impassable start can still be left for any neighbour
+        int[] neighbours = graph.neighbourArray();
+        int count = 0;
+        for (int i = graph.firstNeighbour(start); i < graph.lastNeighbour(start); ++i) {
+            int neighbour = neighbours[i];
+            if (goals.contains(neighbour)) {
+                return -1;
+            }
+            if (!blocked[neighbour]) {
+                exits[count++] = components[neighbour];
+            }
+        }
+        return count;
+    }
+
+    /**
+       Collect the road components a civilian can move into. From a building the civilian may pass through any passable buildings before reaching a road, so the buildings reachable from the start are explored first.
+       @return The number of component labels written to the exits array, or -1 if a goal can be reached without using a road.
+    */
+    private int civilianExits(int start, GoalSet goals) {
+        int[] neighbours = graph.neighbourArray();
+        if (!graph.isBuilding(start)) {
+            if (!blocked[start]) {
+                exits[0] = roadComponents[start];
+                return 1;
+            }
+            int count = 0;
+            for (int i = graph.firstNeighbour(start); i < graph.lastNeighbour(start); ++i) {
+                int neighbour = neighbours[i];
+                if (goals.contains(neighbour)) {
+                    return -1;
+                }
+                if (!blocked[neighbour] && !graph.isBuilding(neighbour)) {
+                    exits[count++] = roadComponents[neighbour];
+                }
+            }
+            return count;
+        }
+        nextEpoch();
+        int count = 0;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        seen[start] = epoch;
+        while (head < tail) {
+            int next = queue[head++];
+            for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+                int neighbour = neighbours[i];
+                if (goals.contains(neighbour)) {
+                    return -1;
+                }
+                if (blocked[neighbour] || seen[neighbour] == epoch) {
+                    continue;
+                }
+                seen[neighbour] = epoch;
+                if (graph.isBuilding(neighbour)) {
+                    queue[tail++] = neighbour;
+                }
+                else {
+                    exits[count++] = roadComponents[neighbour];
+                }
+            }
+        }
+        return count;
+    }
+
+    private void buildMask(GoalSet goals, boolean civilian, long[] result) {
+        Arrays.fill(result, 0);
+        int[] labels = civilian ? roadComponents : components;
+        int[] predecessors = graph.predecessorArray();
+        for (int i = 0; i < goals.size(); ++i) {
+            int goal = goals.get(i);
+            if (isLabelled(goal, civilian)) {
+                result[labels[goal] >>> 6] |= 1L << labels[goal];
+                continue;
+            }
+            for (int j = graph.firstPredecessor(goal); j < graph.lastPredecessor(goal); ++j) {
+                int previous = predecessors[j];
+                if (isLabelled(previous, civilian)) {
+                    result[labels[previous] >>> 6] |= 1L << labels[previous];
+                }
+            }
+        }
+    }
+
+    private boolean reachesAny(GoalSet goals, boolean civilian, int count) {
+        int[] labels = civilian ? roadComponents : components;
+        int[] predecessors = graph.predecessorArray();
+        for (int i = 0; i < goals.size(); ++i) {
+            int goal = goals.get(i);
+            if (isLabelled(goal, civilian)) {
+                if (isExit(labels[goal], count)) {
+                    return true;
+                }
+                continue;
+            }
+            for (int j = graph.firstPredecessor(goal); j < graph.lastPredecessor(goal); ++j) {
+                int previous = predecessors[j];
+                if (isLabelled(previous, civilian) && isExit(labels[previous], count)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+       Find out if a node belongs to a component. Goals that do not can still be entered from the components of their predecessors.
+    */
+    private boolean isLabelled(int node, boolean civilian) {
+        return !blocked[node] && (!civilian || !graph.isBuilding(node));
+    }
+
+    private boolean isExit(int label, int count) {
+        for (int i = 0; i < count; ++i) {
+            if (exits[i] == label) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void relabel() {
+        componentCount = label(components, false);
+        roadComponentCount = label(roadComponents, true);
+        Arrays.fill(maskIds, 0);
+        Arrays.fill(roadMaskIds, 0);
+        dirty = false;
+    }
+
+    /**
+       Label the weakly connected components of the passable nodes, or of the passable roads.
+       @return The number of components.
+    */
+    private int label(int[] labels, boolean civilian) {
+        nextEpoch();
+        int next = 0;
+        Arrays.fill(labels, -1);
+        for (int root = 0; root < graph.size(); ++root) {
+            if (seen[root] != epoch && isLabelled(root, civilian)) {
+                flood(labels, civilian, root, next++);
+            }
+        }
+        return next;
+    }
+
+    /**
+       Give a label to every node in the weak component of a root that has not been seen this epoch.
+    */
+    private void flood(int[] labels, boolean civilian, int root, int label) {
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = root;
+        seen[root] = epoch;
+        while (head < tail) {
+            int node = queue[head++];
+            labels[node] = label;
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                int neighbour = neighbours[i];
+                if (seen[neighbour] != epoch && isLabelled(neighbour, civilian)) {
+                    seen[neighbour] = epoch;
+                    queue[tail++] = neighbour;
+                }
+            }
+            for (int i = graph.firstPredecessor(node); i < graph.lastPredecessor(node); ++i) {
+                int previous = predecessors[i];
+                if (seen[previous] != epoch && isLabelled(previous, civilian)) {
+                    seen[previous] = epoch;
+                    queue[tail++] = previous;
+                }
+            }
+        }
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            epoch = 1;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   The metric-independent half of a customizable contraction hierarchy over an {@link AreaGraph}. Areas are ranked by a minimum degree elimination ordering and every area is joined to the higher ranked areas it was adjacent to when it was eliminated, which gives a chordal supergraph of the neighbour graph. Each arc of the supergraph is stored once, at its lower endpoint, together with the lower triangles that customization relaxes. Nothing here depends on edge weights or on which areas are passable, so one hierarchy can be shared by every agent on a map; each search applies its own weights with a {@link HierarchyRouter}.
+ */
+public final class ContractionHierarchy {
+    private final AreaGraph graph;
+    private final int[] ranks;
+    private final int[] parents;
+    private final int[] arcOffsets;
+    private final int[] arcHeads;
+    private final int[] arcTails;
+    private final int[] edgeArcs;
+    private final int[] triangleLower;
+    private final int[] triangleUpper;
+    private final int[] triangleArc;
+
+    private ContractionHierarchy(AreaGraph graph, int[] ranks, int[][] upward) {
+        this.graph = graph;
+        this.ranks = ranks;
+        int size = graph.size();
+        arcOffsets = new int[size + 1];
+        for (int node = 0; node < size; ++node) {
+            arcOffsets[node + 1] = arcOffsets[node] + upward[node].length;
+        }
+        arcHeads = new int[arcOffsets[size]];
+        arcTails = new int[arcOffsets[size]];
+        parents = new int[size];
+        for (int node = 0; node < size; ++node) {
+            int[] heads = upward[node];
+            sortByRank(heads);
+            System.arraycopy(heads, 0, arcHeads, arcOffsets[node], heads.length);
+            Arrays.fill(arcTails, arcOffsets[node], arcOffsets[node + 1], node);
+            parents[node] = heads.length == 0 ? -1 : heads[0];
+        }
+        // Map every original edge onto the arc that covers it
+        int[] neighbours = graph.neighbourArray();
+        edgeArcs = new int[neighbours.length];
+        for (int node = 0; node < size; ++node) {
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                int other = neighbours[i];
+                if (other == node) {
+                    // A loop never shortens a path
+                    edgeArcs[i] = -1;
+                }
+                else {
+                    edgeArcs[i] = ranks[node] < ranks[other] ? findArc(node, other) : findArc(other, node);
+                }
+            }
+        }
+        // Lower triangles, listed in rank order of their lowest node so customization can run straight through them
+        int count = 0;
+        for (int node = 0; node < size; ++node) {
+            int degree = upward[node].length;
+            count += degree * (degree - 1) / 2;
+        }
+        triangleLower = new int[count];
+        triangleUpper = new int[count];
+        triangleArc = new int[count];
+        int[] order = new int[size];
+        for (int node = 0; node < size; ++node) {
+            order[ranks[node]] = node;
+        }
+        int t = 0;
+        for (int r = 0; r < size; ++r) {
+            int node = order[r];
+            for (int i = arcOffsets[node]; i < arcOffsets[node + 1]; ++i) {
+                for (int j = i + 1; j < arcOffsets[node + 1]; ++j) {
+                    triangleLower[t] = i;
+                    triangleUpper[t] = j;
+                    triangleArc[t] = findArc(arcHeads[i], arcHeads[j]);
+                    ++t;
+                }
+            }
+        }
+    }
+
+    /**
+       Build a hierarchy for a graph. Edges are treated as undirected when ordering; directions only matter once weights are applied.
+       @param graph The graph.
+       @return A new ContractionHierarchy.
+    */
+    public static ContractionHierarchy build(AreaGraph graph) {
+        int size = graph.size();
+        int[][] adjacency = new int[size][];
+        int[] degrees = new int[size];
+        int[] stamps = new int[size];
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        IntMinHeap heap = new IntMinHeap(size);
+        for (int node = 0; node < size; ++node) {
+            int[] list = new int[graph.lastNeighbour(node) - graph.firstNeighbour(node) + graph.lastPredecessor(node) - graph.firstPredecessor(node)];
+            int count = 0;
+            stamps[node] = node + 1;
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                if (stamps[neighbours[i]] != node + 1) {
+                    stamps[neighbours[i]] = node + 1;
+                    list[count++] = neighbours[i];
+                }
+            }
+            for (int i = graph.firstPredecessor(node); i < graph.lastPredecessor(node); ++i) {
+                if (stamps[predecessors[i]] != node + 1) {
+                    stamps[predecessors[i]] = node + 1;
+                    list[count++] = predecessors[i];
+                }
+            }
+            adjacency[node] = list;
+            degrees[node] = count;
+            heap.offer(node, count);
+        }
+        Arrays.fill(stamps, 0);
+        boolean[] eliminated = new boolean[size];
+        int[] ranks = new int[size];
+        int[][] upward = new int[size][];
+        int stamp = 0;
+        for (int r = 0; r < size; ++r) {
+            int node = heap.poll();
+            eliminated[node] = true;
+            ranks[node] = r;
+            int[] remaining = live(adjacency[node], degrees[node], eliminated, stamps, ++stamp);
+            upward[node] = remaining;
+            adjacency[node] = null;
+            // Join the remaining neighbours into a clique
+            for (int a : remaining) {
+                int[] list = adjacency[a];
+                int count = 0;
+                ++stamp;
+                for (int i = 0; i < degrees[a]; ++i) {
+                    int other = list[i];
+                    if (!eliminated[other] && stamps[other] != stamp) {
+                        stamps[other] = stamp;
+                        list[count++] = other;
+                    }
+                }
+                for (int b : remaining) {
+                    if (b != a && stamps[b] != stamp) {
+                        stamps[b] = stamp;
+                        if (count == list.length) {
+                            list = Arrays.copyOf(list, Math.max(4, list.length * 2));
+                        }
+                        list[count++] = b;
+                    }
+                }
+                adjacency[a] = list;
+                degrees[a] = count;
+                heap.update(a, count);
+            }
+        }
+        return new ContractionHierarchy(graph, ranks, upward);
+    }
+
+    /**
+       Get the graph this hierarchy was built for.
+       @return The graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Get the number of arcs in the chordal supergraph.
+       @return The number of arcs.
+    */
+    public int getArcCount() {
+        return arcHeads.length;
+    }
+
+    /**
+       Get the rank of a node in the elimination ordering.
+       @param node The node index.
+       @return The rank.
+    */
+    int rankOf(int node) {
+        return ranks[node];
+    }
+
+    /**
+       Get the parent of a node in the elimination tree: its lowest ranked upward neighbour.
+       @param node The node index.
+       @return The parent node index, or -1 for a root.
+    */
+    int parentOf(int node) {
+        return parents[node];
+    }
+
+    int firstArc(int node) {
+        return arcOffsets[node];
+    }
+
+    int lastArc(int node) {
+        return arcOffsets[node + 1];
+    }
+
+    /**
+       Get the higher ranked end of an arc.
+       @param arc The arc index.
+       @return The node index.
+    */
+    int headOf(int arc) {
+        return arcHeads[arc];
+    }
+
+    /**
+       Get the lower ranked end of an arc.
+       @param arc The arc index.
+       @return The node index.
+    */
+    int tailOf(int arc) {
+        return arcTails[arc];
+    }
+
+    /**
+       Get the arc that covers an original edge.
+       @param edge The index of the edge in the graph's neighbour array.
+       @return The arc index, or -1 if the edge is a loop.
+    */
+    int arcOfEdge(int edge) {
+        return edgeArcs[edge];
+    }
+
+    int triangleCount() {
+        return triangleArc.length;
+    }
+
+    /**
+       Get the arc from the lowest node of a triangle to its middle node.
+       @param triangle The triangle index.
+       @return The arc index.
+    */
+    int lowerArc(int triangle) {
+        return triangleLower[triangle];
+    }
+
+    /**
+       Get the arc from the lowest node of a triangle to its highest node.
+       @param triangle The triangle index.
+       @return The arc index.
+    */
+    int upperArc(int triangle) {
+        return triangleUpper[triangle];
+    }
+
+    /**
+       Get the arc between the middle and highest nodes of a triangle, which the triangle relaxes.
+       @param triangle The triangle index.
+       @return The arc index.
+    */
+    int relaxedArc(int triangle) {
+        return triangleArc[triangle];
+    }
+
+    private int findArc(int tail, int head) {
+        int low = arcOffsets[tail];
+        int high = arcOffsets[tail + 1] - 1;
+        int rank = ranks[head];
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int r = ranks[arcHeads[middle]];
+            if (r < rank) {
+                low = middle + 1;
+            }
+            else if (r > rank) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        throw new IllegalStateException("Missing arc " + tail + " -> " + head);
+    }
+
+    private void sortByRank(int[] nodes) {
+        long[] keys = new long[nodes.length];
+        for (int i = 0; i < nodes.length; ++i) {
+            keys[i] = ((long)ranks[nodes[i]] << 32) | nodes[i];
+        }
+        Arrays.sort(keys);
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = (int)keys[i];
+        }
+    }
+
+    private static int[] live(int[] list, int degree, boolean[] eliminated, int[] stamps, int stamp) {
+        int[] result = new int[degree];
+        int count = 0;
+        for (int i = 0; i < degree; ++i) {
+            int other = list[i];
+            if (!eliminated[other] && stamps[other] != stamp) {
+                stamps[other] = stamp;
+                result[count++] = other;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,317 @@
+package sample;
+
+import java.util.Arrays;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   A multi-source distance field to a goal set. Every node stores its distance (in number of areas) to the nearest goal and the next hop on a shortest path there, so routing to the nearest goal is a walk along next-hop pointers with no search at all. The field follows the same rules as {@link SampleSearch#breadthFirstSearch(EntityID, GoalSet)}: impassable areas can be left and can be entered if they are goals, but cannot be passed through. When an area changes passability, or a goal is added or removed, only the part of the field that depends on it is repaired.
+ */
+public final class DistanceField {
+    /** Distance of nodes that cannot reach any goal. */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final AreaGraph graph;
+    private final GoalSet goals;
+    private int[] distances;
+    private int[] nextHops;
+    private boolean shared;
+    private IntMinHeap heap;
+    private int[] affected;
+    private boolean[] marked;
+
+    /**
+       Build a distance field.
+       @param graph The graph to route over.
+       @param goals The goal set.
+       @param blocked Per-node flags saying which areas are currently impassable.
+    */
+    DistanceField(AreaGraph graph, GoalSet goals, boolean[] blocked) {
+        this.graph = graph;
+        this.goals = goals;
+        int size = graph.size();
+        distances = new int[size];
+        nextHops = new int[size];
+        build(blocked);
+    }
+
+    /**
+       Get the goal set this field routes to.
+       @return The goal set.
+    */
+    public GoalSet getGoals() {
+        return goals;
+    }
+
+    /**
+       Get the distance from a node to the nearest goal.
+       @param node The node index.
+       @return The number of areas to the nearest goal, or {@link #UNREACHABLE}.
+    */
+    public int distance(int node) {
+        return distances[node];
+    }
+
+    /**
+       Get the next hop from a node towards the nearest goal.
+       @param node The node index.
+       @return The next node index, or -1 if the node is a goal or cannot reach one.
+    */
+    public int nextHop(int node) {
+        return nextHops[node];
+    }
+
+    /**
+       Find out if any goal can be reached from a location.
+       @param start The location.
+       @return True if a goal is reachable.
+    */
+    public boolean canReach(EntityID start) {
+        int node = graph.indexOf(start);
+        return node >= 0 && distances[node] != UNREACHABLE;
+    }
+
+    /**
+       Get the path from a location to the nearest goal by following the next-hop pointers.
+       @param start The location we start at.
+       @return The path from start to the nearest goal, or null if no goal can be reached. As with the searches, the path does not include the start unless the start is itself a goal.
+    */
+    public SearchPath pathFrom(EntityID start) {
+        int node = graph.indexOf(start);
+        if (node < 0 || distances[node] == UNREACHABLE) {
+            return null;
+        }
+        int[] result = new int[Math.max(distances[node], 1)];
+        return new SearchPath(graph.idArray(), result, 0, pathFrom(node, result));
+    }
+
+    /**
+       Write the path from a node to the nearest goal into an array.
+       @param start The node index we start at.
+       @param path The array to write into.
+       @return The length of the path, or -1 if no goal can be reached.
+    */
+    public int pathFrom(int start, int[] path) {
+        if (distances[start] == UNREACHABLE) {
+            return -1;
+        }
+        if (distances[start] == 0) {
+            path[0] = start;
+            return 1;
+        }
+        int length = 0;
+        for (int next = nextHops[start]; next >= 0; next = nextHops[next]) {
+            path[length++] = next;
+        }
+        return length;
+    }
+
+    /**
+       Rebuild the whole field with a reverse multi-source breadth first search from the goals.
+       @param blocked Per-node impassable flags.
+    */
+    void build(boolean[] blocked) {
+        own();
+        if (affected == null) {
+            affected = new int[graph.size()];
+        }
+        Arrays.fill(distances, UNREACHABLE);
+        Arrays.fill(nextHops, -1);
+        int[] predecessors = graph.predecessorArray();
+        // The affected array doubles as the queue here
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < goals.size(); ++i) {
+            int goal = goals.get(i);
+            distances[goal] = 0;
+            affected[tail++] = goal;
+        }
+        while (head < tail) {
+            int next = affected[head++];
+            if (!offers(next, blocked)) {
+                continue;
+            }
+            int d = distances[next] + 1;
+            for (int i = graph.firstPredecessor(next); i < graph.lastPredecessor(next); ++i) {
+                int previous = predecessors[i];
+                if (distances[previous] == UNREACHABLE) {
+                    distances[previous] = d;
+                    nextHops[previous] = next;
+                    affected[tail++] = previous;
+                }
+            }
+        }
+    }
+
+    /**
+       Repair the field after a node has become impassable. Only nodes whose shortest path went through the node are recomputed.
+       @param node The node that is now impassable.
+       @param blocked Per-node impassable flags, already updated.
+    */
+    void nodeBlocked(int node, boolean[] blocked) {
+        if (goals.contains(node)) {
+            return;
+        }
+        repairDownstream(node, false, blocked);
+    }
+
+    /**
+       Repair the field after a node has been removed from the goal set. The node and every node whose shortest path ended there are recomputed.
+       @param node The node that is no longer a goal.
+       @param blocked Per-node impassable flags.
+    */
+    void goalRemoved(int node, boolean[] blocked) {
+        repairDownstream(node, true, blocked);
+    }
+
+    /**
+       Repair the field after a node has been added to the goal set. Distances can only shrink, so improvements are pushed outwards from the new goal.
+       @param node The node that is now a goal.
+       @param blocked Per-node impassable flags.
+    */
+    void goalAdded(int node, boolean[] blocked) {
+        prepareRepair();
+        heap.clear();
+        nextHops[node] = -1;
+        heap.offer(node, 0);
+        settle(blocked, false);
+    }
+
+    /**
+       Reset and recompute everything downstream of a node in the shortest path tree.
+       @param node The node the change happened at.
+       @param includeNode Whether the node's own distance must be recomputed as well.
+       @param blocked Per-node impassable flags.
+    */
+    private void repairDownstream(int node, boolean includeNode, boolean[] blocked) {
+        prepareRepair();
+        int[] predecessors = graph.predecessorArray();
+        int[] neighbours = graph.neighbourArray();
+        // Collect everything downstream of the node in the shortest path tree
+        int count = 0;
+        int head = 0;
+        affected[count++] = node;
+        marked[node] = true;
+        while (head < count) {
+            int next = affected[head++];
+            for (int i = graph.firstPredecessor(next); i < graph.lastPredecessor(next); ++i) {
+                int previous = predecessors[i];
+                if (!marked[previous] && nextHops[previous] == next) {
+                    marked[previous] = true;
+                    affected[count++] = previous;
+                }
+            }
+        }
+        // A blocked node keeps its own distance; it can still be left
+        int first = includeNode ? 0 : 1;
+        marked[node] = includeNode;
+        for (int j = first; j < count; ++j) {
+            distances[affected[j]] = UNREACHABLE;
+            nextHops[affected[j]] = -1;
+        }
+        // Seed each affected node from its unaffected neighbours
+        heap.clear();
+        for (int j = first; j < count; ++j) {
+            int next = affected[j];
+            for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+                int neighbour = neighbours[i];
+                if (!marked[neighbour] && offers(neighbour, blocked) && distances[neighbour] != UNREACHABLE) {
+                    relax(next, neighbour, distances[neighbour] + 1);
+                }
+            }
+        }
+        settle(blocked, true);
+        for (int j = first; j < count; ++j) {
+            marked[affected[j]] = false;
+        }
+    }
+
+    /**
+       Repair the field after a node has become passable again. Distances can only shrink, so improvements are pushed outwards from the node.
+       @param node The node that is now passable.
+       @param blocked Per-node impassable flags, already updated.
+    */
+    void nodeUnblocked(int node, boolean[] blocked) {
+        if (goals.contains(node) || distances[node] == UNREACHABLE) {
+            return;
+        }
+        prepareRepair();
+        heap.clear();
+        heap.offer(node, distances[node]);
+        settle(blocked, false);
+    }
+
+    /**
+       Get a handle on this field that shares its tables until the first repair, when the handle takes a private copy. This lets many agents start from one precomputed field.
+       @return A new DistanceField handle.
+    */
+    DistanceField share() {
+        return new DistanceField(this);
+    }
+
+    private DistanceField(DistanceField other) {
+        graph = other.graph;
+        goals = other.goals;
+        distances = other.distances;
+        nextHops = other.nextHops;
+        shared = true;
+    }
+
+    /**
+       Make sure this field owns its tables before they are changed.
+    */
+    private void own() {
+        if (shared) {
+            distances = distances.clone();
+            nextHops = nextHops.clone();
+            shared = false;
+        }
+    }
+
+    /**
+       Make sure this field owns its tables and has scratch space for repairs.
+    */
+    private void prepareRepair() {
+        own();
+        int size = graph.size();
+        if (heap == null) {
+            heap = new IntMinHeap(size);
+            affected = new int[size];
+            marked = new boolean[size];
+        }
+    }
+
+    private void relax(int node, int via, int d) {
+        if (d < distances[node] && (!heap.contains(node) || d < heap.keyOf(node))) {
+            nextHops[node] = via;
+            heap.offer(node, d);
+        }
+    }
+
+    /**
+       Run Dijkstra over the heap, pulling distances through predecessor edges.
+       @param blocked Per-node impassable flags.
+       @param onlyMarked Whether to restrict updates to marked nodes.
+    */
+    private void settle(boolean[] blocked, boolean onlyMarked) {
+        int[] predecessors = graph.predecessorArray();
+        while (!heap.isEmpty()) {
+            int d = (int)heap.peekKey();
+            int next = heap.poll();
+            distances[next] = d;
+            if (!offers(next, blocked)) {
+                continue;
+            }
+            for (int i = graph.firstPredecessor(next); i < graph.lastPredecessor(next); ++i) {
+                int previous = predecessors[i];
+                if ((!onlyMarked || marked[previous]) && d + 1 < distances[previous]) {
+                    relax(previous, next, d + 1);
+                }
+            }
+        }
+    }
+
+    private boolean offers(int node, boolean[] blocked) {
+        return !blocked[node] || goals.contains(node);
+    }
+}
@@ -1,12 +1,16 @@
 package sample;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.RandomAccess;
 
 import rescuecore2.standard.entities.StandardEntity;
 import rescuecore2.standard.entities.StandardWorldModel;
 
 /**
-   A comparator that sorts entities by distance to a reference point.
+   A comparator that sorts entities by distance to a reference point. The static {@link #sort(List, StandardEntity, StandardWorldModel)} and {@link #nearest(List, int, StandardEntity, StandardWorldModel)} methods give the same order but work out each distance only once, packed with the entity's position in the list into a long key, and are preferred for sorting whole lists.
 */
 public class DistanceSorter implements Comparator<StandardEntity> {
     private StandardEntity reference;
@@ -24,8 +28,115 @@ public class DistanceSorter implements Comparator<StandardEntity> {
 
     @Override
     public int compare(StandardEntity a, StandardEntity b) {
-        int d1 = world.getDistance(reference, a);
-        int d2 = world.getDistance(reference, b);
-        return d1 - d2;
+        return Integer.compare(world.getDistance(reference, a), world.getDistance(reference, b));
+    }
+
+    /**
+       Sort a list of entities in place by distance to a reference point. Entities at the same distance keep their order.
+       @param entities The entities to sort.
+       @param reference The reference point to measure distances from.
+       @param world The world model.
+    */
+    public static <T extends StandardEntity> void sort(List<T> entities, StandardEntity reference, StandardWorldModel world) {
+        long[] keys = keys(entities, reference, world);
+        Arrays.sort(keys);
+        List<T> sorted = inOrder(entities, keys, keys.length);
+        for (int i = 0; i < keys.length; ++i) {
+            entities.set(i, sorted.get(i));
+        }
+    }
+
+    /**
+       Find the entities nearest to a reference point without sorting the whole list. The nearest entities are chosen by partial selection and only they are sorted, so this takes linear time plus the time to sort the result.
+       @param entities The entities to choose from. The list is not changed.
+       @param count The number of entities wanted.
+       @param reference The reference point to measure distances from.
+       @param world The world model.
+       @return A new list of the nearest entities, nearest first, with fewer than count entries if the list is shorter.
+    */
+    public static <T extends StandardEntity> List<T> nearest(List<T> entities, int count, StandardEntity reference, StandardWorldModel world) {
+        long[] keys = keys(entities, reference, world);
+        int wanted = Math.max(0, Math.min(count, keys.length));
+        if (wanted < keys.length) {
+            select(keys, wanted);
+        }
+        Arrays.sort(keys, 0, wanted);
+        return inOrder(entities, keys, wanted);
+    }
+
+    /**
+       Work out the distance of every entity once. The distance goes in the high half of each key and the position in the list in the low half, so sorting the keys sorts by distance and then by position.
+    */
+    private static <T extends StandardEntity> long[] keys(List<T> entities, StandardEntity reference, StandardWorldModel world) {
+        long[] keys = new long[entities.size()];
+        int i = 0;
+        for (T next : entities) {
+            keys[i] = ((long)world.getDistance(reference, next) << 32) | i;
+            ++i;
+        }
+        return keys;
+    }
+
+    /**
+       List the entities named by the low halves of the first keys.
+    */
+    private static <T extends StandardEntity> List<T> inOrder(List<T> entities, long[] keys, int count) {
+        List<T> all = entities instanceof RandomAccess ? entities : new ArrayList<T>(entities);
+        List<T> result = new ArrayList<T>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add(all.get((int)keys[i]));
+        }
+        return result;
+    }
+
+    /**
+       Move the smallest keys to the front of an array by quickselect, so the first {@code count} keys are the smallest in some order.
+    */
+    private static void select(long[] keys, int count) {
+        int low = 0;
+        int high = keys.length - 1;
+        while (low < high) {
+            // Median of three keeps lists that are nearly sorted already from going quadratic
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < keys[low]) {
+                swap(keys, middle, low);
+            }
+            if (keys[high] < keys[low]) {
+                swap(keys, high, low);
+            }
+            if (keys[high] < keys[middle]) {
+                swap(keys, high, middle);
+            }
+            long pivot = keys[middle];
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    ++i;
+                }
+                while (keys[j] > pivot) {
+                    --j;
+                }
+                if (i <= j) {
+                    swap(keys, i++, j--);
+                }
+            }
+            // Keys are unique, so [low, j] holds keys at most the pivot and [i, high] keys at least the pivot
+            if (count - 1 <= j) {
+                high = j;
+            }
+            else if (count - 1 >= i) {
+                low = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private static void swap(long[] keys, int a, int b) {
+        long t = keys[a];
+        keys[a] = keys[b];
+        keys[b] = t;
     }
 }
@@ -0,0 +1,226 @@
+package sample;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   A set of goal nodes stored as a bitset over the node indices of an {@link AreaGraph}, so membership tests are constant time however many goals there are. Goal sets are either frozen (built once and shared) or pooled (owned by a SampleSearch and refilled for each query).
+ */
+public final class GoalSet {
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(1);
+
+    private final AreaGraph graph;
+    private int id;
+    private final long[] bits;
+    private int[] members;
+    private int size;
+    private boolean frozen;
+    private boolean boundsValid;
+    private boolean bounded;
+    private double minX;
+    private double minY;
+    private double maxX;
+    private double maxY;
+
+    /**
+       Create an empty goal set.
+       @param graph The graph the goal nodes belong to.
+    */
+    GoalSet(AreaGraph graph) {
+        this.graph = graph;
+        this.bits = new long[(graph.size() + 63) >>> 6];
+        this.members = new int[16];
+    }
+
+    /**
+       Create a frozen goal set from a collection of EntityIDs. IDs that are not part of the graph are ignored.
+       @param graph The graph the goal nodes belong to.
+       @param goals The goals.
+       @return A new frozen goal set.
+    */
+    static GoalSet of(AreaGraph graph, Collection<EntityID> goals) {
+        GoalSet result = new GoalSet(graph);
+        result.addAll(goals);
+        result.frozen = true;
+        result.id = NEXT_ID.getAndIncrement();
+        result.computeBounds();
+        return result;
+    }
+
+    /**
+       Find out if a node is a goal.
+       @param node The node index.
+       @return True if the node is in this set.
+    */
+    public boolean contains(int node) {
+        return (bits[node >>> 6] & (1L << node)) != 0;
+    }
+
+    /**
+       Find out if an entity is a goal.
+       @param id The EntityID to look up.
+       @return True if the entity is in this set.
+    */
+    public boolean contains(EntityID id) {
+        int node = graph.indexOf(id);
+        return node >= 0 && contains(node);
+    }
+
+    /**
+       Get the number of goals.
+       @return The number of goals.
+    */
+    public int size() {
+        return size;
+    }
+
+    /**
+       Find out if there are no goals.
+       @return True if this set is empty.
+    */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+       Get the node index of a goal.
+       @param i The position of the goal, between 0 and {@link #size()} - 1.
+       @return The node index.
+    */
+    public int get(int i) {
+        return members[i];
+    }
+
+    /**
+       Get a lower bound on the straight line distance from a node to the nearest goal, measured to the bounding box of the goal centroids. This is zero if the node or any goal has no centroid.
+       @param node The node index.
+       @return A lower bound on the distance to any goal.
+    */
+    public double lowerBound(int node) {
+        if (!boundsValid) {
+            computeBounds();
+        }
+        if (!bounded || !graph.isLocated(node)) {
+            return 0;
+        }
+        int x = graph.getX(node);
+        int y = graph.getY(node);
+        double dx = x < minX ? minX - x : (x > maxX ? x - maxX : 0);
+        double dy = y < minY ? minY - y : (y > maxY ? y - maxY : 0);
+        return Math.hypot(dx, dy);
+    }
+
+    /**
+       Get the graph this set indexes.
+       @return The graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Find out if this set is frozen.
+       @return True if the set can no longer change.
+    */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+       Get the identifier of this set. Frozen sets get a unique positive identifier so search results for them can be cached; pooled sets have identifier zero.
+       @return The identifier.
+    */
+    int getId() {
+        return id;
+    }
+
+    /**
+       Add a node to this set.
+       @param node The node index.
+    */
+    void add(int node) {
+        if (frozen) {
+            throw new IllegalStateException("Goal set is frozen");
+        }
+        if (contains(node)) {
+            return;
+        }
+        bits[node >>> 6] |= 1L << node;
+        boundsValid = false;
+        if (size == members.length) {
+            members = Arrays.copyOf(members, size * 2);
+        }
+        members[size++] = node;
+    }
+
+    /**
+       Remove a node from this set.
+       @param node The node index.
+    */
+    void remove(int node) {
+        if (frozen) {
+            throw new IllegalStateException("Goal set is frozen");
+        }
+        if (!contains(node)) {
+            return;
+        }
+        bits[node >>> 6] &= ~(1L << node);
+        boundsValid = false;
+        for (int i = 0; i < size; ++i) {
+            if (members[i] == node) {
+                members[i] = members[--size];
+                break;
+            }
+        }
+    }
+
+    /**
+       Add a collection of EntityIDs to this set. IDs that are not part of the graph are ignored.
+       @param goals The goals to add.
+    */
+    void addAll(Collection<EntityID> goals) {
+        for (EntityID next : goals) {
+            int node = graph.indexOf(next);
+            if (node >= 0) {
+                add(node);
+            }
+        }
+    }
+
+    /**
+       Remove all goals. This only touches the words that hold a goal.
+    */
+    void clear() {
+        if (frozen) {
+            throw new IllegalStateException("Goal set is frozen");
+        }
+        for (int i = 0; i < size; ++i) {
+            bits[members[i] >>> 6] = 0;
+        }
+        size = 0;
+        boundsValid = false;
+    }
+
+    private void computeBounds() {
+        minX = Double.POSITIVE_INFINITY;
+        minY = Double.POSITIVE_INFINITY;
+        maxX = Double.NEGATIVE_INFINITY;
+        maxY = Double.NEGATIVE_INFINITY;
+        bounded = size > 0;
+        for (int i = 0; i < size; ++i) {
+            int node = members[i];
+            if (!graph.isLocated(node)) {
+                bounded = false;
+                break;
+            }
+            minX = Math.min(minX, graph.getX(node));
+            minY = Math.min(minY, graph.getY(node));
+            maxX = Math.max(maxX, graph.getX(node));
+            maxY = Math.max(maxY, graph.getY(node));
+        }
+        boundsValid = true;
+    }
+}
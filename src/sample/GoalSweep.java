@@ -0,0 +1,160 @@
+package sample;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+   Answers every request in a batch that shares one goal set with a single reverse multi-source breadth first search from the goals. The sweep stops as soon as every start has been reached. It only reads the graph and the impassable flags, and each sweep in a batch is given its own scratch space, so sweeps for different goal sets can run in parallel.
+ */
+final class GoalSweep extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final AreaGraph graph;
+    private final boolean[] blocked;
+    private final GoalSet goals;
+    private final List<SearchPath> results;
+    private final Scratch scratch;
+    private int[] starts;
+    private int[] slots;
+    private int count;
+    private int expanded;
+
+    /**
+       Create a sweep with no requests.
+       @param graph The graph.
+       @param blocked Per-node impassable flags. They must not change while the sweep runs.
+       @param goals The shared goal set.
+       @param results The list to write each answer into, at the slot given with its start.
+       @param scratch Scratch space that no other running sweep is using.
+    */
+    GoalSweep(AreaGraph graph, boolean[] blocked, GoalSet goals, List<SearchPath> results, Scratch scratch) {
+        this.graph = graph;
+        this.blocked = blocked;
+        this.goals = goals;
+        this.results = results;
+        this.scratch = scratch;
+        starts = new int[4];
+        slots = new int[4];
+    }
+
+    /**
+       Add a request to this sweep.
+       @param start The start node index.
+       @param slot The index of the request in the batch.
+    */
+    void add(int start, int slot) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        starts[count] = start;
+        slots[count] = slot;
+        ++count;
+    }
+
+    /**
+       Get the number of nodes the sweep expanded.
+       @return The number of expanded nodes.
+    */
+    int getExpandedNodes() {
+        return expanded;
+    }
+
+    @Override
+    protected void compute() {
+        int epoch = scratch.nextEpoch();
+        int[] seen = scratch.seen;
+        int[] distances = scratch.distances;
+        int[] nextHops = scratch.nextHops;
+        int[] queue = scratch.queue;
+        int[] wanted = scratch.wanted;
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < goals.size(); ++i) {
+            int goal = goals.get(i);
+            seen[goal] = epoch;
+            distances[goal] = 0;
+            nextHops[goal] = -1;
+            queue[tail++] = goal;
+        }
+        // Every distinct start must be reached before the sweep can stop
+        int remaining = 0;
+        for (int i = 0; i < count; ++i) {
+            if (wanted[starts[i]] != epoch && seen[starts[i]] != epoch) {
+                wanted[starts[i]] = epoch;
+                ++remaining;
+            }
+        }
+        int[] predecessors = graph.predecessorArray();
+        while (head < tail && remaining > 0) {
+            int next = queue[head++];
+            ++expanded;
+            if (blocked[next] && !goals.contains(next)) {
+                // An impassable area can be left but not passed through
+                continue;
+            }
+            int d = distances[next] + 1;
+            for (int i = graph.firstPredecessor(next); i < graph.lastPredecessor(next); ++i) {
+                int previous = predecessors[i];
+                if (seen[previous] != epoch) {
+                    seen[previous] = epoch;
+                    distances[previous] = d;
+                    nextHops[previous] = next;
+                    queue[tail++] = previous;
+                    if (wanted[previous] == epoch) {
+                        --remaining;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < count; ++i) {
+            results.set(slots[i], seen[starts[i]] == epoch ? path(starts[i], distances, nextHops) : null);
+        }
+    }
+
+    private SearchPath path(int start, int[] distances, int[] nextHops) {
+        if (distances[start] == 0) {
+            return new SearchPath(graph.idArray(), new int[] {start}, 0, 1);
+        }
+        int[] result = new int[distances[start]];
+        int length = 0;
+        for (int next = nextHops[start]; next >= 0; next = nextHops[next]) {
+            result[length++] = next;
+        }
+        return new SearchPath(graph.idArray(), result, 0, length);
+    }
+
+    /**
+       Epoch-stamped scratch space for one sweep, kept between batches so a sweep only pays for the nodes it reaches.
+    */
+    static final class Scratch {
+        private final int[] seen;
+        private final int[] wanted;
+        private final int[] distances;
+        private final int[] nextHops;
+        private final int[] queue;
+        private int epoch;
+
+        /**
+           Create scratch space for a graph.
+           @param size The number of nodes in the graph.
+        */
+        Scratch(int size) {
+            seen = new int[size];
+            wanted = new int[size];
+            distances = new int[size];
+            nextHops = new int[size];
+            queue = new int[size];
+        }
+
+        private int nextEpoch() {
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(seen, 0);
+                Arrays.fill(wanted, 0);
+                epoch = 1;
+            }
+            return epoch;
+        }
+    }
+}
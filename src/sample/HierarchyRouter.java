@@ -0,0 +1,286 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   Answers breadth first search queries on a {@link ContractionHierarchy}. The router holds one search's metric: every original edge costs one, except that edges leaving an impassable area cost infinity, which is exactly the rule the searches use. When areas change passability the arc weights are recomputed by customization, a single pass over the lower triangles of the hierarchy, and the hierarchy itself is never rebuilt. A query walks the elimination tree upwards from the start and from the goals and meets in the middle, so it touches only the ancestors of those nodes.
+ */
+final class HierarchyRouter {
+    private static final int INFINITY = Integer.MAX_VALUE / 4;
+
+    private final ContractionHierarchy hierarchy;
+    private final AreaGraph graph;
+    private final boolean[] blocked;
+    private final int[] up;
+    private final int[] down;
+    private final int[] upVia;
+    private final int[] downVia;
+    private final int[] forward;
+    private final int[] backward;
+    private final int[] forwardArc;
+    private final int[] backwardArc;
+    private final int[] forwardSeen;
+    private final int[] backwardSeen;
+    private final int[] collected;
+    private final int[] stack;
+    private final int[] order;
+    private int epoch;
+    private boolean dirty;
+    private int touched;
+
+    /**
+       Create a router.
+       @param hierarchy The shared hierarchy.
+       @param blocked Per-node impassable flags, owned and kept up to date by the search.
+    */
+    HierarchyRouter(ContractionHierarchy hierarchy, boolean[] blocked) {
+        this.hierarchy = hierarchy;
+        this.graph = hierarchy.getGraph();
+        this.blocked = blocked;
+        int arcs = hierarchy.getArcCount();
+        int size = graph.size();
+        up = new int[arcs];
+        down = new int[arcs];
+        upVia = new int[arcs];
+        downVia = new int[arcs];
+        forward = new int[size];
+        backward = new int[size];
+        forwardArc = new int[size];
+        backwardArc = new int[size];
+        forwardSeen = new int[size];
+        backwardSeen = new int[size];
+        collected = new int[Math.max(size, 1)];
+        stack = new int[Math.max(size, 1) + 1];
+        order = new int[size];
+        for (int node = 0; node < size; ++node) {
+            order[hierarchy.rankOf(node)] = node;
+        }
+        dirty = true;
+    }
+
+    /**
+       Note that the passability of an area has changed. The weights are customized again before the next query.
+    */
+    void invalidate() {
+        dirty = true;
+    }
+
+    /**
+       Get the number of nodes the last query touched.
+       @return The number of nodes.
+    */
+    int getTouchedNodes() {
+        return touched;
+    }
+
+    /**
+       Find a shortest path, in number of areas, from a start node to the nearest goal.
+       @param start The start node index.
+       @param goals The goals.
+       @param path The array to write the path into, excluding the start unless the start is a goal.
+       @return The length of the path, or -1 if no goal can be reached.
+    */
+    int route(int start, GoalSet goals, int[] path) {
+        touched = 0;
+        if (goals.contains(start)) {
+            path[0] = start;
+            return 1;
+        }
+        if (dirty) {
+            customize();
+        }
+        nextEpoch();
+        int count = 0;
+        if (blocked[start]) {
+            // An impassable start can still be left, so the search starts from its passable neighbours
+            int[] neighbours = graph.neighbourArray();
+            for (int i = graph.firstNeighbour(start); i < graph.lastNeighbour(start); ++i) {
+                int neighbour = neighbours[i];
+                if (goals.contains(neighbour)) {
+                    path[0] = neighbour;
+                    return 1;
+                }
+                if (!blocked[neighbour]) {
+                    count = collect(neighbour, forwardSeen, forward, forwardArc, count);
+                }
+            }
+            for (int i = graph.firstNeighbour(start); i < graph.lastNeighbour(start); ++i) {
+                if (!blocked[neighbours[i]]) {
+                    forward[neighbours[i]] = 1;
+                }
+            }
+        }
+        else {
+            count = collect(start, forwardSeen, forward, forwardArc, 0);
+            forward[start] = 0;
+        }
+        sweep(count, forward, forwardArc, up);
+        count = 0;
+        for (int i = 0; i < goals.size(); ++i) {
+            count = collect(goals.get(i), backwardSeen, backward, backwardArc, count);
+        }
+        for (int i = 0; i < goals.size(); ++i) {
+            backward[goals.get(i)] = 0;
+        }
+        sweep(count, backward, backwardArc, down);
+        int best = INFINITY;
+        int meet = -1;
+        for (int i = 0; i < count; ++i) {
+            int node = collected[i];
+            if (forwardSeen[node] == epoch && forward[node] + backward[node] < best) {
+                best = forward[node] + backward[node];
+                meet = node;
+            }
+        }
+        if (meet < 0) {
+            return -1;
+        }
+        return unpack(meet, path);
+    }
+
+    /**
+       Walk up the elimination tree from a node, adding every ancestor that has not been collected yet with an infinite distance. The ancestors of a collected node are always collected, so the walk stops at the first one.
+       @return The new number of collected nodes.
+    */
+    private int collect(int node, int[] seen, int[] distances, int[] arcs, int count) {
+        for (int next = node; next >= 0 && seen[next] != epoch; next = hierarchy.parentOf(next)) {
+            seen[next] = epoch;
+            distances[next] = INFINITY;
+            arcs[next] = -1;
+            collected[count++] = next;
+        }
+        return count;
+    }
+
+    /**
+       Relax the upward arcs of the collected nodes in rank order.
+    */
+    private void sweep(int count, int[] distances, int[] arcs, int[] weights) {
+        for (int i = 0; i < count; ++i) {
+            collected[i] = hierarchy.rankOf(collected[i]);
+        }
+        Arrays.sort(collected, 0, count);
+        for (int i = 0; i < count; ++i) {
+            int node = order[collected[i]];
+            collected[i] = node;
+            ++touched;
+            int d = distances[node];
+            if (d >= INFINITY) {
+                continue;
+            }
+            for (int arc = hierarchy.firstArc(node); arc < hierarchy.lastArc(node); ++arc) {
+                int head = hierarchy.headOf(arc);
+                int candidate = d + weights[arc];
+                if (candidate < distances[head]) {
+                    distances[head] = candidate;
+                    arcs[head] = arc;
+                }
+            }
+        }
+    }
+
+    /**
+       Turn the arcs that lead up to the meeting node and back down to a goal into original areas.
+    */
+    private int unpack(int meet, int[] path) {
+        int length = 0;
+        // The forward chain is found from the meeting node downwards, so collect it first and replay it in reverse
+        int chain = 0;
+        int first = meet;
+        while (forwardArc[first] >= 0) {
+            collected[chain++] = forwardArc[first];
+            first = hierarchy.tailOf(forwardArc[first]);
+        }
+        if (forward[first] == 1) {
+            // Seeded from a neighbour of an impassable start
+            path[length++] = first;
+        }
+        for (int i = chain - 1; i >= 0; --i) {
+            length = expand(collected[i] << 1, path, length);
+        }
+        for (int next = meet; backwardArc[next] >= 0; next = hierarchy.tailOf(backwardArc[next])) {
+            length = expand((backwardArc[next] << 1) | 1, path, length);
+        }
+        return length;
+    }
+
+    /**
+       Expand one arc into the areas it stands for and append them to the path.
+       @param step The arc index shifted left by one, with the low bit set if the arc is followed downwards.
+    */
+    private int expand(int step, int[] path, int length) {
+        int top = 0;
+        stack[top++] = step;
+        while (top > 0) {
+            int next = stack[--top];
+            int arc = next >>> 1;
+            boolean downwards = (next & 1) != 0;
+            int via = downwards ? downVia[arc] : upVia[arc];
+            if (via < 0) {
+                path[length++] = downwards ? hierarchy.tailOf(arc) : hierarchy.headOf(arc);
+            }
+            else if (downwards) {
+                // highest -> lowest -> middle
+                stack[top++] = hierarchy.lowerArc(via) << 1;
+                stack[top++] = (hierarchy.upperArc(via) << 1) | 1;
+            }
+            else {
+                // middle -> lowest -> highest
+                stack[top++] = hierarchy.upperArc(via) << 1;
+                stack[top++] = (hierarchy.lowerArc(via) << 1) | 1;
+            }
+        }
+        return length;
+    }
+
+    private void customize() {
+        Arrays.fill(up, INFINITY);
+        Arrays.fill(down, INFINITY);
+        Arrays.fill(upVia, -1);
+        Arrays.fill(downVia, -1);
+        int[] neighbours = graph.neighbourArray();
+        for (int node = 0; node < graph.size(); ++node) {
+            if (blocked[node]) {
+                continue;
+            }
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                int arc = hierarchy.arcOfEdge(i);
+                if (arc < 0) {
+                    continue;
+                }
+                if (hierarchy.tailOf(arc) == node) {
+                    up[arc] = 1;
+                }
+                else {
+                    down[arc] = 1;
+                }
+            }
+        }
+        for (int t = 0; t < hierarchy.triangleCount(); ++t) {
+            int lower = hierarchy.lowerArc(t);
+            int upper = hierarchy.upperArc(t);
+            int arc = hierarchy.relaxedArc(t);
+            // middle -> lowest -> highest
+            int d = down[lower] + up[upper];
+            if (d < up[arc]) {
+                up[arc] = d;
+                upVia[arc] = t;
+            }
+            // highest -> lowest -> middle
+            d = down[upper] + up[lower];
+            if (d < down[arc]) {
+                down[arc] = d;
+                downVia[arc] = t;
+            }
+        }
+        dirty = false;
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE / 2) {
+            Arrays.fill(forwardSeen, 0);
+            Arrays.fill(backwardSeen, 0);
+            epoch = 1;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package sample;
+
+import java.util.Collection;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   A planner that keeps its search state between timesteps. It maintains a {@link DistanceField} rooted at the goals, so moving the agent needs no repair at all, a change of passability only repairs the areas whose shortest path went through the changed area, and a change to the goals only repairs the areas that were routed to a removed goal or can now reach an added one. Paths have the same length as those of {@link SampleSearch#breadthFirstSearch(EntityID, Collection)}.
+ */
+public final class IncrementalPlanner {
+    private final AreaGraph graph;
+    private final boolean[] blocked;
+    private final GoalSet goals;
+    private final GoalSet scratch;
+    private final DistanceField field;
+    private final int[] changes;
+
+    /**
+       Create a planner with no goals.
+       @param graph The graph to plan over.
+       @param blocked Per-node impassable flags, owned and kept up to date by the search.
+    */
+    IncrementalPlanner(AreaGraph graph, boolean[] blocked) {
+        this.graph = graph;
+        this.blocked = blocked;
+        this.goals = new GoalSet(graph);
+        this.scratch = new GoalSet(graph);
+        this.field = new DistanceField(graph, goals, blocked);
+        this.changes = new int[graph.size() * 2];
+    }
+
+    /**
+       Plan a path from a location to the nearest of a set of goals, repairing the stored state for any goals that changed since the last call.
+       @param start The location we start at.
+       @param newGoals The set of possible goals.
+       @return The path from start to one of the goals, or null if no path can be found.
+    */
+    public SearchPath plan(EntityID start, Collection<EntityID> newGoals) {
+        setGoals(newGoals);
+        if (graph.indexOf(start) < 0) {
+            // Not part of the graph so the only reachable goal is the start itself
+            return newGoals.contains(start) ? SearchPath.singleton(start) : null;
+        }
+        return field.pathFrom(start);
+    }
+
+    /**
+       Plan a path from a location to the nearest of a set of goals, repairing the stored state for any goals that changed since the last call. The goal set is copied, so a pooled set can be refilled afterwards.
+       @param start The location we start at.
+       @param newGoals The set of possible goals.
+       @return The path from start to one of the goals, or null if no path can be found.
+    */
+    public SearchPath plan(EntityID start, GoalSet newGoals) {
+        setGoals(newGoals);
+        if (graph.indexOf(start) < 0) {
+            // Goal sets only hold nodes of the graph, so no goal can be reached
+            return null;
+        }
+        return field.pathFrom(start);
+    }
+
+    /**
+       Change the goals. Goals that were added or removed are repaired one by one unless most of the goals changed, in which case the field is rebuilt.
+       @param newGoals The new goals.
+    */
+    public void setGoals(Collection<EntityID> newGoals) {
+        scratch.clear();
+        scratch.addAll(newGoals);
+        setGoals(scratch);
+    }
+
+    /**
+       Change the goals to those of a goal set over the same graph. Goals that were added or removed are repaired one by one unless most of the goals changed, in which case the field is rebuilt.
+       @param newGoals The new goals.
+    */
+    public void setGoals(GoalSet newGoals) {
+        int removed = 0;
+        for (int i = 0; i < goals.size(); ++i) {
+            if (!newGoals.contains(goals.get(i))) {
+                changes[removed++] = goals.get(i);
+            }
+        }
+        int count = removed;
+        for (int i = 0; i < newGoals.size(); ++i) {
+            if (!goals.contains(newGoals.get(i))) {
+                changes[count++] = newGoals.get(i);
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (count > newGoals.size()) {
+            goals.clear();
+            for (int i = 0; i < newGoals.size(); ++i) {
+                goals.add(newGoals.get(i));
+            }
+            field.build(blocked);
+            return;
+        }
+        for (int i = 0; i < removed; ++i) {
+            goals.remove(changes[i]);
+            field.goalRemoved(changes[i], blocked);
+        }
+        for (int i = removed; i < count; ++i) {
+            goals.add(changes[i]);
+            field.goalAdded(changes[i], blocked);
+        }
+    }
+
+    /**
+       Get the distance field this planner maintains.
+       @return The distance field.
+    */
+    public DistanceField getField() {
+        return field;
+    }
+}
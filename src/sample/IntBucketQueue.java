@@ -0,0 +1,117 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   An indexed monotone priority queue of node indices keyed by small non-negative integers, kept as a circular array of buckets (Dial's algorithm). Each node can be in the queue at most once and its key can be lowered in place. Keys may not be lower than the last key polled, and every key in the queue must lie within the span given at construction of the smallest one, which holds for Dijkstra with integer arc weights no larger than the span. Every operation is constant time apart from skipping empty buckets, and nothing is allocated after construction.
+ */
+final class IntBucketQueue {
+    private final int[] heads;
+    private final int[] next;
+    private final int[] previous;
+    private final int[] keys;
+    private final boolean[] queued;
+    private int size;
+    private int cursor;
+
+    /**
+       Create a queue for nodes numbered from zero to {@code capacity - 1}.
+       @param capacity The number of nodes.
+       @param span The largest difference between two keys in the queue at the same time.
+    */
+    IntBucketQueue(int capacity, int span) {
+        heads = new int[span + 1];
+        next = new int[capacity];
+        previous = new int[capacity];
+        keys = new int[capacity];
+        queued = new boolean[capacity];
+        Arrays.fill(heads, -1);
+    }
+
+    /**
+       Find out if the queue is empty.
+       @return True if the queue is empty.
+    */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+       Get the smallest key in the queue.
+       @return The smallest key, or {@code Integer.MAX_VALUE} if the queue is empty.
+    */
+    int peekKey() {
+        if (size == 0) {
+            return Integer.MAX_VALUE;
+        }
+        while (heads[cursor % heads.length] < 0) {
+            ++cursor;
+        }
+        return cursor;
+    }
+
+    /**
+       Insert a node, or lower its key if it is already in the queue with a larger key.
+       @param node The node index.
+       @param key The key.
+    */
+    void offer(int node, int key) {
+        if (queued[node]) {
+            if (key >= keys[node]) {
+                return;
+            }
+            unlink(node);
+        }
+        else {
+            queued[node] = true;
+            ++size;
+        }
+        keys[node] = key;
+        int bucket = key % heads.length;
+        previous[node] = -1;
+        next[node] = heads[bucket];
+        if (heads[bucket] >= 0) {
+            previous[heads[bucket]] = node;
+        }
+        heads[bucket] = node;
+    }
+
+    /**
+       Remove and return a node with the smallest key.
+       @return The node index.
+    */
+    int poll() {
+        peekKey();
+        int result = heads[cursor % heads.length];
+        unlink(result);
+        queued[result] = false;
+        --size;
+        return result;
+    }
+
+    /**
+       Remove all nodes and start again from key zero. This costs time proportional to the span and the current size.
+    */
+    void clear() {
+        for (int bucket = 0; bucket < heads.length; ++bucket) {
+            for (int node = heads[bucket]; node >= 0; node = next[node]) {
+                queued[node] = false;
+            }
+            heads[bucket] = -1;
+        }
+        size = 0;
+        cursor = 0;
+    }
+
+    private void unlink(int node) {
+        if (previous[node] >= 0) {
+            next[previous[node]] = next[node];
+        }
+        else {
+            heads[keys[node] % heads.length] = next[node];
+        }
+        if (next[node] >= 0) {
+            previous[next[node]] = previous[node];
+        }
+    }
+}
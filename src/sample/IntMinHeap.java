@@ -0,0 +1,184 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   An indexed binary min-heap of node indices keyed by double priorities. Each node can be in the heap at most once and its key can be lowered in place. Nothing is allocated after construction.
+ */
+final class IntMinHeap {
+    private final int[] heap;
+    private final double[] keys;
+    private final int[] positions;
+    private int size;
+
+    /**
+       Create a heap for nodes numbered from zero to {@code capacity - 1}.
+       @param capacity The number of nodes.
+    */
+    IntMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        positions = new int[capacity];
+        Arrays.fill(positions, -1);
+    }
+
+    /**
+       Find out if the heap is empty.
+       @return True if the heap is empty.
+    */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+       Get the number of nodes in the heap.
+       @return The number of nodes.
+    */
+    int size() {
+        return size;
+    }
+
+    /**
+       Find out if a node is in the heap.
+       @param node The node index.
+       @return True if the node is in the heap.
+    */
+    boolean contains(int node) {
+        return positions[node] >= 0;
+    }
+
+    /**
+       Get the smallest key in the heap.
+       @return The smallest key, or positive infinity if the heap is empty.
+    */
+    double peekKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+    }
+
+    /**
+       Get the key of a node in the heap.
+       @param node The node index.
+       @return The key.
+    */
+    double keyOf(int node) {
+        return keys[node];
+    }
+
+    /**
+       Insert a node, or lower its key if it is already in the heap with a larger key.
+       @param node The node index.
+       @param key The key.
+    */
+    void offer(int node, double key) {
+        int position = positions[node];
+        if (position < 0) {
+            keys[node] = key;
+            heap[size] = node;
+            positions[node] = size;
+            siftUp(size++);
+        }
+        else if (key < keys[node]) {
+            keys[node] = key;
+            siftUp(position);
+        }
+    }
+
+    /**
+       Insert a node or change its key in either direction.
+       @param node The node index.
+       @param key The key.
+    */
+    void update(int node, double key) {
+        int position = positions[node];
+        if (position < 0 || key < keys[node]) {
+            offer(node, key);
+        }
+        else {
+            keys[node] = key;
+            siftDown(position);
+        }
+    }
+
+    /**
+       Remove and return the node with the smallest key.
+       @return The node index.
+    */
+    int poll() {
+        int result = heap[0];
+        positions[result] = -1;
+        if (--size > 0) {
+            heap[0] = heap[size];
+            positions[heap[0]] = 0;
+            siftDown(0);
+        }
+        return result;
+    }
+
+    /**
+       Remove a node from the heap if it is present.
+       @param node The node index.
+    */
+    void remove(int node) {
+        int position = positions[node];
+        if (position < 0) {
+            return;
+        }
+        positions[node] = -1;
+        if (--size > position) {
+            int last = heap[size];
+            heap[position] = last;
+            positions[last] = position;
+            siftDown(position);
+            siftUp(positions[last]);
+        }
+    }
+
+    /**
+       Remove all nodes. This costs time proportional to the current size.
+    */
+    void clear() {
+        for (int i = 0; i < size; ++i) {
+            positions[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        int node = heap[position];
+        double key = keys[node];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int other = heap[parent];
+            if (keys[other] <= key) {
+                break;
+            }
+            heap[position] = other;
+            positions[other] = position;
+            position = parent;
+        }
+        heap[position] = node;
+        positions[node] = position;
+    }
+
+    private void siftDown(int position) {
+        int node = heap[position];
+        double key = keys[node];
+        int half = size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]]) {
+                child = right;
+            }
+            int other = heap[child];
+            if (key <= keys[other]) {
+                break;
+            }
+            heap[position] = other;
+            positions[other] = position;
+            position = child;
+        }
+        heap[position] = node;
+        positions[node] = position;
+    }
+}
@@ -0,0 +1,303 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+   Exact shortest path distances from a few landmark areas to every area and back, used to give A* lower bounds through the triangle inequality: for any landmark L, {@code d(v, g) >= d(L, g) - d(L, v)} and {@code d(v, g) >= d(v, L) - d(g, L)}. Distances are measured along centroid edge lengths and stored rounded down in flat int arrays, one row of landmarks per node, so the bounds subtract one to stay admissible. A table is immutable and can be shared between searches and saved beside the map.
+ */
+public final class LandmarkTable {
+    /** Stored distance of nodes that are not connected to a landmark. */
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private static final int MAGIC = 0x414C5431;
+
+    private final long fingerprint;
+    private final int size;
+    private final int[] landmarks;
+    private final int[] from;
+    private final int[] to;
+
+    private LandmarkTable(long fingerprint, int size, int[] landmarks, int[] from, int[] to) {
+        this.fingerprint = fingerprint;
+        this.size = size;
+        this.landmarks = landmarks;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+       Choose landmarks by farthest-point selection and compute their distance tables. The first landmark is the area farthest from the area with the most neighbours; each further landmark is the area farthest from all landmarks chosen so far. Areas that no landmark can reach are never chosen, so small disconnected pieces of the map do not use up landmarks.
+       @param graph The graph.
+       @param count The number of landmarks to choose.
+       @param fingerprint The fingerprint of the map, stored so a saved table can be checked when it is loaded.
+       @return A new LandmarkTable.
+    */
+    public static LandmarkTable compute(AreaGraph graph, int count, long fingerprint) {
+        int size = graph.size();
+        count = Math.min(count, size);
+        int[] chosen = new int[count];
+        int[] from = new int[size * count];
+        int[] to = graph.isSymmetric() ? from : new int[size * count];
+        double[] distances = new double[size];
+        double[] nearest = new double[size];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        IntMinHeap heap = new IntMinHeap(size);
+        int next = size == 0 ? -1 : farthest(dijkstra(graph, busiest(graph), false, distances, heap), true);
+        int found = 0;
+        while (found < count && next >= 0) {
+            chosen[found] = next;
+            dijkstra(graph, next, false, distances, heap);
+            store(distances, from, found, count);
+            for (int node = 0; node < size; ++node) {
+                nearest[node] = Math.min(nearest[node], distances[node]);
+            }
+            if (to != from) {
+                store(dijkstra(graph, next, true, distances, heap), to, found, count);
+            }
+            ++found;
+            next = farthest(nearest, false);
+        }
+        if (found < count) {
+            return new LandmarkTable(fingerprint, size, Arrays.copyOf(chosen, found), compact(from, size, count, found), to == from ? null : compact(to, size, count, found));
+        }
+        return new LandmarkTable(fingerprint, size, chosen, from, to == from ? null : to);
+    }
+
+    /**
+       Load a table saved by {@link #save(File)}.
+       @param file The file to read.
+       @param graph The graph the table must match.
+       @param fingerprint The fingerprint of the current map.
+       @return The table, or null if the file was written for a different map.
+       @throws IOException If the file cannot be read.
+    */
+    public static LandmarkTable load(File file, AreaGraph graph, long fingerprint) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            buffer.flip();
+            if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getLong() != fingerprint || buffer.getInt() != graph.size()) {
+                return null;
+            }
+            int count = buffer.getInt();
+            boolean directed = buffer.getInt() != 0;
+            int cells = graph.size() * count;
+            if (buffer.remaining() != 4 * (count + cells * (directed ? 2 : 1))) {
+                return null;
+            }
+            int[] chosen = new int[count];
+            int[] from = new int[cells];
+            buffer.asIntBuffer().get(chosen);
+            buffer.position(buffer.position() + 4 * count);
+            buffer.asIntBuffer().get(from);
+            int[] to = null;
+            if (directed) {
+                buffer.position(buffer.position() + 4 * cells);
+                to = new int[cells];
+                buffer.asIntBuffer().get(to);
+            }
+            return new LandmarkTable(fingerprint, graph.size(), chosen, from, to);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+       Save this table so that later runs on the same map can load it instead of computing it.
+       @param file The file to write.
+       @throws IOException If the file cannot be written.
+    */
+    public void save(File file) throws IOException {
+        int cells = from.length + (to == null ? 0 : to.length);
+        ByteBuffer buffer = ByteBuffer.allocate(24 + 4 * (landmarks.length + cells));
+        buffer.putInt(MAGIC);
+        buffer.putLong(fingerprint);
+        buffer.putInt(size);
+        buffer.putInt(landmarks.length);
+        buffer.putInt(to == null ? 0 : 1);
+        buffer.asIntBuffer().put(landmarks);
+        buffer.position(buffer.position() + 4 * landmarks.length);
+        buffer.asIntBuffer().put(from);
+        buffer.position(buffer.position() + 4 * from.length);
+        if (to != null) {
+            buffer.asIntBuffer().put(to);
+        }
+        buffer.rewind();
+        MapTopology.replace(file, buffer);
+    }
+
+    /**
+       Get the number of landmarks.
+       @return The number of landmarks.
+    */
+    public int getLandmarkCount() {
+        return landmarks.length;
+    }
+
+    /**
+       Get the node index of a landmark.
+       @param i The landmark number.
+       @return The node index.
+    */
+    public int getLandmark(int i) {
+        return landmarks[i];
+    }
+
+    /**
+       Get the number of nodes in the graph this table was computed for.
+       @return The number of nodes.
+    */
+    public int getGraphSize() {
+        return size;
+    }
+
+    /**
+       Get the fingerprint of the map this table was computed for.
+       @return The fingerprint.
+    */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+       Get the rounded down distance from a landmark to a node.
+       @param landmark The landmark number.
+       @param node The node index.
+       @return The distance, or {@link #UNREACHABLE}.
+    */
+    int fromLandmark(int landmark, int node) {
+        return from[node * landmarks.length + landmark];
+    }
+
+    /**
+       Get the rounded down distance from a node to a landmark.
+       @param landmark The landmark number.
+       @param node The node index.
+       @return The distance, or {@link #UNREACHABLE}.
+    */
+    int toLandmark(int landmark, int node) {
+        return (to == null ? from : to)[node * landmarks.length + landmark];
+    }
+
+    /**
+       Get a lower bound on the distance from a node to the nearest goal.
+       @param node The node index.
+       @param nearestFrom For each landmark, the smallest distance from the landmark to any goal.
+       @param farthestTo For each landmark, the largest distance from any goal to the landmark.
+       @return A lower bound on the distance.
+    */
+    double lowerBound(int node, int[] nearestFrom, int[] farthestTo) {
+        int count = landmarks.length;
+        int base = node * count;
+        int[] back = to == null ? from : to;
+        long best = 0;
+        for (int i = 0; i < count; ++i) {
+            int fromHere = from[base + i];
+            if (fromHere != UNREACHABLE && nearestFrom[i] != UNREACHABLE) {
+                best = Math.max(best, (long)nearestFrom[i] - fromHere - 1);
+            }
+            int toHere = back[base + i];
+            if (toHere != UNREACHABLE && farthestTo[i] != UNREACHABLE) {
+                best = Math.max(best, (long)toHere - farthestTo[i] - 1);
+            }
+        }
+        return best;
+    }
+
+    /**
+       Summarise a goal set for {@link #lowerBound(int, int[], int[])}.
+       @param goals The goals.
+       @param nearestFrom Filled with the smallest distance from each landmark to any goal.
+       @param farthestTo Filled with the largest distance from any goal to each landmark.
+    */
+    void summarise(GoalSet goals, int[] nearestFrom, int[] farthestTo) {
+        int count = landmarks.length;
+        for (int i = 0; i < count; ++i) {
+            nearestFrom[i] = UNREACHABLE;
+            farthestTo[i] = 0;
+        }
+        for (int j = 0; j < goals.size(); ++j) {
+            int goal = goals.get(j);
+            for (int i = 0; i < count; ++i) {
+                nearestFrom[i] = Math.min(nearestFrom[i], fromLandmark(i, goal));
+                farthestTo[i] = Math.max(farthestTo[i], toLandmark(i, goal));
+            }
+        }
+    }
+
+    private static double[] dijkstra(AreaGraph graph, int source, boolean reverse, double[] distances, IntMinHeap heap) {
+        int[] edges = reverse ? graph.predecessorArray() : graph.neighbourArray();
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        distances[source] = 0;
+        heap.clear();
+        heap.offer(source, 0);
+        while (!heap.isEmpty()) {
+            double d = heap.peekKey();
+            int next = heap.poll();
+            int first = reverse ? graph.firstPredecessor(next) : graph.firstNeighbour(next);
+            int last = reverse ? graph.lastPredecessor(next) : graph.lastNeighbour(next);
+            for (int i = first; i < last; ++i) {
+                int other = edges[i];
+                double candidate = d + graph.edgeLength(next, other);
+                if (candidate < distances[other]) {
+                    distances[other] = candidate;
+                    heap.offer(other, candidate);
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+       Find the node with the largest finite distance.
+       @param distances The distances.
+       @param allowZero Whether a node at distance zero may be returned.
+       @return The node index, or -1 if there is none.
+    */
+    private static int farthest(double[] distances, boolean allowZero) {
+        int result = -1;
+        double best = allowZero ? -1 : 0;
+        for (int node = 0; node < distances.length; ++node) {
+            if (distances[node] != Double.POSITIVE_INFINITY && distances[node] > best) {
+                best = distances[node];
+                result = node;
+            }
+        }
+        return result;
+    }
+
+    private static int busiest(AreaGraph graph) {
+        int result = 0;
+        for (int node = 1; node < graph.size(); ++node) {
+            if (graph.lastNeighbour(node) - graph.firstNeighbour(node) > graph.lastNeighbour(result) - graph.firstNeighbour(result)) {
+                result = node;
+            }
+        }
+        return result;
+    }
+
+    private static void store(double[] distances, int[] table, int landmark, int count) {
+        for (int node = 0; node < distances.length; ++node) {
+            double d = distances[node];
+            table[node * count + landmark] = d >= UNREACHABLE ? UNREACHABLE : (int)d;
+        }
+    }
+
+    private static int[] compact(int[] table, int size, int count, int found) {
+        int[] result = new int[size * found];
+        for (int node = 0; node < size; ++node) {
+            System.arraycopy(table, node * count, result, node * found, found);
+        }
+        return result;
+    }
+}
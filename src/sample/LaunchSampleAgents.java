@@ -84,11 +84,13 @@ public final class LaunchSampleAgents {
 
     private static void connect(ComponentLauncher launcher, int fb, int pf, int at, Config config) throws InterruptedException, ConnectionException {
         int i = 0;
+        // Every agent on the same map reuses one topology instead of building its own
+        SharedMapTopology topology = new SharedMapTopology();
         try {
             while (fb-- != 0) {
                 Logger.info("Connecting fire brigade " + (i++) + "...");
-//                launcher.connect(new SampleFireBrigade());
-                launcher.connect(new LearningFireBrigade());
+//                launcher.connect(new SampleFireBrigade(topology));
+                launcher.connect(new LearningFireBrigade(topology));
                 Logger.info("success");
             }
         }
@@ -98,7 +100,7 @@ public final class LaunchSampleAgents {
         try {
             while (pf-- != 0) {
                 Logger.info("Connecting police force " + (i++) + "...");
-                launcher.connect(new SamplePoliceForce());
+                launcher.connect(new SamplePoliceForce(topology));
                 Logger.info("success");
             }	
         }
@@ -108,7 +110,7 @@ public final class LaunchSampleAgents {
         try {
             while (at-- != 0) {
                 Logger.info("Connecting ambulance team " + (i++) + "...");
-                launcher.connect(new SampleAmbulanceTeam());
+                launcher.connect(new SampleAmbulanceTeam(topology));
                 Logger.info("success");
             }
         }
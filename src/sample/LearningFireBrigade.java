@@ -113,6 +113,8 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
     private int maxWater;
     private int maxDistance;
     private int maxPower;
+    private ReachTable reach;
+    private GoalSet fireGoals;
 	
     public boolean isDead() {
     	return me().isHPDefined() && me().getHP() <= 0;
@@ -230,7 +232,7 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
      */
     /*
     public boolean replenishWater(int time, ChangeSet changed) {
-    	List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+    	List<EntityID> path = refugeField.pathFrom(me().getPosition());
         if (path != null) {
             Logger.info("Moving to refuge");
             sendMove(time, path);
@@ -252,7 +254,7 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
     	if(me().getWater() == maxWater) {
     		return false;
     	}
-    	List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+    	List<EntityID> path = refugeField.pathFrom(me().getPosition());
         if (path != null) {
             Logger.info("Moving to refuge");
             sendMove(time, path);
@@ -374,6 +376,20 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
     	return l.get(0);
     }
     
+    /**
+       Construct a LearningFireBrigade that builds its own map topology.
+    */
+    public LearningFireBrigade() {
+    }
+
+    /**
+       Construct a LearningFireBrigade that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public LearningFireBrigade(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
+
     @Override
     public String toString() {
         return "Learning fire brigade";
@@ -386,6 +402,8 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
         maxWater = config.getIntValue(MAX_WATER_KEY);
         maxDistance = config.getIntValue(MAX_DISTANCE_KEY);
         maxPower = config.getIntValue(MAX_POWER_KEY);
+        reach = getReachTable(maxDistance);
+        fireGoals = new GoalSet(search.getAreaGraph());
 //        System.out.println(maxPower);
         if(read) {
         	id = idTable;
@@ -419,6 +437,7 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
 
         FireBrigade me = me();
 		previous_state = state;
@@ -549,16 +568,15 @@ public class LearningFireBrigade extends AbstractSampleAgent<FireBrigade> {
             }
         }
         // Sort by distance
-        Collections.sort(result, new DistanceSorter(location(), model));
+        DistanceSorter.sort(result, location(), model);
         return objectsToIDs(result);
     }
 
     private List<EntityID> planPathToFire(EntityID target) {
-        // Try to get to anything within maxDistance of the target
-        Collection<StandardEntity> targets = model.getObjectsInRange(target, maxDistance);
-        if (targets.isEmpty()) {
+        // Try to get to any area within maxDistance of the target
+        if (reach.fillAreas(search.getAreaGraph().indexOf(target), fireGoals) == 0) {
             return null;
         }
-        return search.breadthFirstSearch(me().getPosition(), objectsToIDs(targets));
+        return search.breadthFirstSearch(me().getPosition(), fireGoals);
     }
 }
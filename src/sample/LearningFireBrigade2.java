@@ -104,6 +104,8 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
     private int maxWater;
     private int maxDistance;
     private int maxPower;
+    private ReachTable reach;
+    private GoalSet fireGoals;
 	private boolean Isrefuge() {
 		return location() instanceof Refuge;
 	}
@@ -224,7 +226,7 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
      */
     /*
     public boolean replenishWater(int time, ChangeSet changed) {
-    	List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+    	List<EntityID> path = refugeField.pathFrom(me().getPosition());
         if (path != null) {
             Logger.info("Moving to refuge");
             sendMove(time, path);
@@ -246,7 +248,7 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
     	if(me().getWater() == maxWater) {
     		return false;
     	}
-    	List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+    	List<EntityID> path = refugeField.pathFrom(me().getPosition());
         if (path != null) {
             Logger.info("Moving to refuge");
             sendMove(time, path);
@@ -381,6 +383,20 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
     	return l.get(0);
     }
     
+    /**
+       Construct a LearningFireBrigade2 that builds its own map topology.
+    */
+    public LearningFireBrigade2() {
+    }
+
+    /**
+       Construct a LearningFireBrigade2 that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public LearningFireBrigade2(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
+
     @Override
     public String toString() {
         return "Learning fire brigade";
@@ -393,6 +409,8 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
         maxWater = config.getIntValue(MAX_WATER_KEY);
         maxDistance = config.getIntValue(MAX_DISTANCE_KEY);
         maxPower = config.getIntValue(MAX_POWER_KEY);
+        reach = getReachTable(maxDistance);
+        fireGoals = new GoalSet(search.getAreaGraph());
 //        System.out.println(maxPower);
         if(read) {
         	List<List<Double>> Qlist = readFromFile("modules/sample/src/sample/tables/Qtable.tmp");
@@ -420,6 +438,7 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
 
         FireBrigade me = me();
 		previous_state = state;
@@ -541,16 +560,15 @@ public class LearningFireBrigade2 extends AbstractSampleAgent<FireBrigade> {
             }
         }
         // Sort by distance
-        Collections.sort(result, new DistanceSorter(location(), model));
+        DistanceSorter.sort(result, location(), model);
         return objectsToIDs(result);
     }
 
     private List<EntityID> planPathToFire(EntityID target) {
-        // Try to get to anything within maxDistance of the target
-        Collection<StandardEntity> targets = model.getObjectsInRange(target, maxDistance);
-        if (targets.isEmpty()) {
+        // Try to get to any area within maxDistance of the target
+        if (reach.fillAreas(search.getAreaGraph().indexOf(target), fireGoals) == 0) {
             return null;
         }
-        return search.breadthFirstSearch(me().getPosition(), objectsToIDs(targets));
+        return search.breadthFirstSearch(me().getPosition(), fireGoals);
     }
 }
@@ -117,6 +117,8 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
     private int maxWater;
     private int maxDistance;
     private int maxPower;
+    private ReachTable reach;
+    private GoalSet fireGoals;
 	
     public boolean isDead() {
     	return me().isHPDefined() && me().getHP() <= 0;
@@ -263,7 +265,7 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
     	if(me().getWater() == maxWater) {
     		return false;
     	}
-    	List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+    	List<EntityID> path = refugeField.pathFrom(me().getPosition());
         if (path != null) {
             Logger.info("Moving to refuge");
             sendMove(time, path);
@@ -418,6 +420,20 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
     	return l.get(0);
     }
     
+    /**
+       Construct a LearningMultiFireBrigade that builds its own map topology.
+    */
+    public LearningMultiFireBrigade() {
+    }
+
+    /**
+       Construct a LearningMultiFireBrigade that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public LearningMultiFireBrigade(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
+
     @Override
     public String toString() {
         return "Learning fire brigade";
@@ -430,6 +446,8 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
         maxWater = config.getIntValue(MAX_WATER_KEY);
         maxDistance = config.getIntValue(MAX_DISTANCE_KEY);
         maxPower = config.getIntValue(MAX_POWER_KEY);
+        reach = getReachTable(maxDistance);
+        fireGoals = new GoalSet(search.getAreaGraph());
         System.out.println(maxPower);
         if(read) {
         	List<List<Double>> Qlist = readFromFile("Qtable_multi.tmp");
@@ -450,6 +468,7 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
 
         FireBrigade me = me();
 		previous_state = state;
@@ -568,17 +587,16 @@ public class LearningMultiFireBrigade extends AbstractSampleAgent<FireBrigade> {
             }
         }
         // Sort by distance
-        Collections.sort(result, new DistanceSorter(location(), model));
+        DistanceSorter.sort(result, location(), model);
         return objectsToIDs(result);
     }
 
     private List<EntityID> planPathToFire(EntityID target) {
-        // Try to get to anything within maxDistance of the target
-        Collection<StandardEntity> targets = model.getObjectsInRange(target, maxDistance);
-        if (targets.isEmpty()) {
+        // Try to get to any area within maxDistance of the target
+        if (reach.fillAreas(search.getAreaGraph().indexOf(target), fireGoals) == 0) {
             return null;
         }
-        return search.breadthFirstSearch(me().getPosition(), objectsToIDs(targets));
+        return search.breadthFirstSearch(me().getPosition(), fireGoals);
     }
 }
 
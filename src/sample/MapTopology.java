@@ -0,0 +1,673 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import rescuecore2.worldmodel.EntityID;
+import rescuecore2.log.Logger;
+
+import rescuecore2.standard.entities.Area;
+import rescuecore2.standard.entities.Building;
+import rescuecore2.standard.entities.GasStation;
+import rescuecore2.standard.entities.Hydrant;
+import rescuecore2.standard.entities.Refuge;
+import rescuecore2.standard.entities.Road;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   Everything about a map that never changes during a run: the area graph, the ID lists of each kind of area, their goal sets and distance fields to the static goal sets. A MapTopology is immutable once built, so one instance can be shared by every agent in a JVM. The landmark table for A*, the contraction hierarchy, the civilian refuge field, the passages, the area grid and tree and the reach table are the exceptions: they are computed when first asked for and then shared too. A topology can be saved beside the map and loaded by later runs instead of being rebuilt from the world model.
+ */
+public final class MapTopology {
+    private static final int MAGIC = 0x4D544F31;
+    private static final int HEADER_SIZE = 28;
+
+    // Area kinds stored for each node in a topology file
+    private static final int BUILDING = 1;
+    private static final int LOCATED = 2;
+    private static final int ROAD = 4;
+    private static final int REFUGE = 8;
+    private static final int HYDRANT = 16;
+    private static final int GAS_STATION = 32;
+
+    private final long fingerprint;
+    private final AreaGraph graph;
+    private final List<EntityID> buildingIDs;
+    private final List<EntityID> roadIDs;
+    private final List<EntityID> refugeIDs;
+    private final GoalSet buildingGoals;
+    private final GoalSet roadGoals;
+    private final GoalSet refugeGoals;
+    private final GoalSet hydrantGoals;
+    private final GoalSet gasStationGoals;
+    private final DistanceField refugeField;
+    private final DistanceField hydrantField;
+    private final DistanceField gasStationField;
+    private LandmarkTable landmarks;
+    private ContractionHierarchy hierarchy;
+    private CivilianField civilianRefugeField;
+    private PassageGraph passages;
+    private AreaGrid areaGrid;
+    private int areaGridCellSize;
+    private ReachTable reach;
+    private AreaTree areaTree;
+
+    private MapTopology(long fingerprint, AreaGraph graph, List<EntityID> buildings, List<EntityID> roads, List<EntityID> refuges, List<EntityID> hydrants, List<EntityID> gasStations) {
+        this.fingerprint = fingerprint;
+        this.graph = graph;
+        buildingIDs = Collections.unmodifiableList(buildings);
+        roadIDs = Collections.unmodifiableList(roads);
+        refugeIDs = Collections.unmodifiableList(refuges);
+        buildingGoals = GoalSet.of(graph, buildings);
+        roadGoals = GoalSet.of(graph, roads);
+        refugeGoals = GoalSet.of(graph, refuges);
+        hydrantGoals = GoalSet.of(graph, hydrants);
+        gasStationGoals = GoalSet.of(graph, gasStations);
+        boolean[] open = new boolean[graph.size()];
+        refugeField = new DistanceField(graph, refugeGoals, open);
+        hydrantField = new DistanceField(graph, hydrantGoals, open);
+        gasStationField = new DistanceField(graph, gasStationGoals, open);
+    }
+
+    /**
+       Build the topology of a world model.
+       @param world The world model.
+       @return A new MapTopology.
+    */
+    public static MapTopology build(StandardWorldModel world) {
+        return build(world, fingerprint(world));
+    }
+
+    /**
+       Build the topology of a world model whose fingerprint is already known.
+       @param world The world model.
+       @param fingerprint The fingerprint of the world model.
+       @return A new MapTopology.
+    */
+    static MapTopology build(StandardWorldModel world, long fingerprint) {
+        AreaGraph graph = AreaGraph.fromWorld(world);
+        List<EntityID> buildings = new ArrayList<EntityID>();
+        List<EntityID> roads = new ArrayList<EntityID>();
+        List<EntityID> refuges = new ArrayList<EntityID>();
+        List<EntityID> hydrants = new ArrayList<EntityID>();
+        List<EntityID> gasStations = new ArrayList<EntityID>();
+        for (StandardEntity next : world) {
+            if (next instanceof Building) {
+                buildings.add(next.getID());
+            }
+            if (next instanceof Road) {
+                roads.add(next.getID());
+            }
+            if (next instanceof Refuge) {
+                refuges.add(next.getID());
+            }
+            if (next instanceof Hydrant) {
+                hydrants.add(next.getID());
+            }
+            if (next instanceof GasStation) {
+                gasStations.add(next.getID());
+            }
+        }
+        return new MapTopology(fingerprint, graph, buildings, roads, refuges, hydrants, gasStations);
+    }
+
+    /**
+       Get the topology of a world model from a topology file saved beside the map. The file is keyed by the path, size and modification time of the map file, so it is loaded only if the map has not changed since it was written; otherwise the topology is built from the world model and saved for later runs. Without a readable map file the topology is always built.
+       @param world The world model.
+       @param mapFile The map file the world model was read from, or null if it is not known.
+       @param file The topology file to load from and save to, or null to always build the topology.
+       @return The topology.
+    */
+    public static MapTopology build(StandardWorldModel world, File mapFile, File file) {
+        if (mapFile == null || file == null) {
+            return build(world);
+        }
+        long mapHash;
+        try {
+            mapHash = mapHash(mapFile);
+        }
+        catch (IOException e) {
+            Logger.warn("Could not read map file " + mapFile, e);
+            return build(world);
+        }
+        return build(world, mapHash, file);
+    }
+
+    /**
+       Get the topology of a world model from a topology file, given the hash of the map file.
+       @param world The world model.
+       @param mapHash The hash of the map file.
+       @param file The topology file to load from and save to.
+       @return The topology.
+    */
+    static MapTopology build(StandardWorldModel world, long mapHash, File file) {
+        if (file.exists()) {
+            try {
+                long start = System.currentTimeMillis();
+                MapTopology loaded = load(file, mapHash);
+                if (loaded != null && loaded.describes(world)) {
+                    Logger.debug("Loaded map topology from " + file + " in " + (System.currentTimeMillis() - start) + "ms");
+                    return loaded;
+                }
+            }
+            catch (IOException e) {
+                Logger.warn("Could not read map topology from " + file, e);
+            }
+        }
+        MapTopology result = build(world);
+        try {
+            result.save(file, mapHash);
+        }
+        catch (IOException e) {
+            Logger.warn("Could not save map topology to " + file, e);
+        }
+        return result;
+    }
+
+    /**
+       Compute the hash that keys topology files to a map file. Only the path, size and modification time of the file are hashed, so connecting never reads the map file however large it is; any edit to the map changes its modification time and makes old topology files stale.
+       @param mapFile The map file.
+       @return The hash.
+       @throws IOException If the file does not exist.
+    */
+    public static long mapHash(File mapFile) throws IOException {
+        if (!mapFile.isFile()) {
+            throw new IOException("No such map file: " + mapFile);
+        }
+        String path = mapFile.getCanonicalPath();
+        long result = mix(path.length());
+        for (int i = 0; i < path.length(); ++i) {
+            result = mix(result ^ path.charAt(i));
+        }
+        result = mix(result ^ mapFile.length());
+        return mix(result ^ mapFile.lastModified());
+    }
+
+    /**
+       Load a topology saved by {@link #save(File, long)}. The file is memory mapped and the IDs and kinds of the areas are read straight from the mapping. The neighbour, offset and coordinate arrays are copied out in bulk, because the graph keeps them as plain arrays that every search indexes directly. The neighbour offsets and node indices are checked before they are used, so a damaged file is rebuilt rather than trusted.
+       @param file The file to read.
+       @param mapHash The hash of the current map file.
+       @return The topology, or null if the file was written for a different map or its arcs are not valid.
+       @throws IOException If the file cannot be read.
+    */
+    static MapTopology load(File file, long mapHash) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getLong() != mapHash) {
+                return null;
+            }
+            long fingerprint = buffer.getLong();
+            int size = buffer.getInt();
+            int arcs = buffer.getInt();
+            if (size < 0 || arcs < 0 || buffer.remaining() != 4L * (4L * size + 1 + arcs) + size) {
+                return null;
+            }
+            int idBase = buffer.position();
+            int kindBase = buffer.limit() - size;
+            int[] offsets = new int[size + 1];
+            int[] neighbours = new int[arcs];
+            int[] xs = new int[size];
+            int[] ys = new int[size];
+            buffer.position(idBase + 4 * size);
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + 4 * (size + 1));
+            buffer.asIntBuffer().get(neighbours);
+            buffer.position(buffer.position() + 4 * arcs);
+            buffer.asIntBuffer().get(xs);
+            buffer.position(buffer.position() + 4 * size);
+            buffer.asIntBuffer().get(ys);
+            if (!isValid(offsets, neighbours, size)) {
+                return null;
+            }
+            EntityID[] ids = new EntityID[size];
+            boolean[] building = new boolean[size];
+            boolean[] located = new boolean[size];
+            List<EntityID> buildings = new ArrayList<EntityID>();
+            List<EntityID> roads = new ArrayList<EntityID>();
+            List<EntityID> refuges = new ArrayList<EntityID>();
+            List<EntityID> hydrants = new ArrayList<EntityID>();
+            List<EntityID> gasStations = new ArrayList<EntityID>();
+            // Areas were given node indices in the order the world model listed them, so the ID lists come back in the same order
+            for (int node = 0; node < size; ++node) {
+                EntityID id = new EntityID(buffer.getInt(idBase + 4 * node));
+                int kind = buffer.get(kindBase + node);
+                ids[node] = id;
+                building[node] = (kind & BUILDING) != 0;
+                located[node] = (kind & LOCATED) != 0;
+                if ((kind & BUILDING) != 0) {
+                    buildings.add(id);
+                }
+                if ((kind & ROAD) != 0) {
+                    roads.add(id);
+                }
+                if ((kind & REFUGE) != 0) {
+                    refuges.add(id);
+                }
+                if ((kind & HYDRANT) != 0) {
+                    hydrants.add(id);
+                }
+                if ((kind & GAS_STATION) != 0) {
+                    gasStations.add(id);
+                }
+            }
+            AreaGraph graph = AreaGraph.fromArrays(ids, offsets, neighbours, building, xs, ys, located);
+            return new MapTopology(fingerprint, graph, buildings, roads, refuges, hydrants, gasStations);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+       Check that neighbour offsets read from a file start at zero, never decrease and end at the number of arcs, and that every neighbour is a node of the graph.
+    */
+    private static boolean isValid(int[] offsets, int[] neighbours, int size) {
+        if (offsets[0] != 0 || offsets[size] != neighbours.length) {
+            return false;
+        }
+        for (int node = 0; node < size; ++node) {
+            if (offsets[node] > offsets[node + 1]) {
+                return false;
+            }
+        }
+        for (int i = 0; i < neighbours.length; ++i) {
+            if (neighbours[i] < 0 || neighbours[i] >= size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+       Save this topology so that later runs on the same map can load it instead of building it.
+       @param file The file to write.
+       @param mapHash The hash of the map file this topology was built from.
+       @throws IOException If the file cannot be written.
+    */
+    public void save(File file, long mapHash) throws IOException {
+        int size = graph.size();
+        int[] neighbours = graph.neighbourArray();
+        int arcs = graph.firstNeighbour(size);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (4 * size + 1 + arcs) + size);
+        buffer.putInt(MAGIC);
+        buffer.putLong(mapHash);
+        buffer.putLong(fingerprint);
+        buffer.putInt(size);
+        buffer.putInt(arcs);
+        for (int node = 0; node < size; ++node) {
+            buffer.putInt(graph.idOf(node).getValue());
+        }
+        for (int node = 0; node < size; ++node) {
+            buffer.putInt(graph.firstNeighbour(node));
+        }
+        buffer.putInt(arcs);
+        buffer.asIntBuffer().put(neighbours, 0, arcs);
+        buffer.position(buffer.position() + 4 * arcs);
+        for (int node = 0; node < size; ++node) {
+            buffer.putInt(graph.getX(node));
+        }
+        for (int node = 0; node < size; ++node) {
+            buffer.putInt(graph.getY(node));
+        }
+        for (int node = 0; node < size; ++node) {
+            buffer.put((byte)kind(node));
+        }
+        buffer.rewind();
+        replace(file, buffer);
+    }
+
+    /**
+       Write the contents of a buffer to a file in place of what was there. The buffer is written to a temporary file in the same directory that is then moved over the file in one step, so agents in other JVMs loading the file at the same time see either the old contents or the new, never a partly written file.
+       @param file The file to write.
+       @param buffer The contents, from its position to its limit.
+       @throws IOException If the file cannot be written.
+    */
+    static void replace(File file, ByteBuffer buffer) throws IOException {
+        File target = file.getAbsoluteFile();
+        Path temp = Files.createTempFile(target.getParentFile().toPath(), target.getName(), ".tmp");
+        try {
+            FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            finally {
+                channel.close();
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private int kind(int node) {
+        int result = 0;
+        if (graph.isBuilding(node)) {
+            result |= BUILDING;
+        }
+        if (graph.isLocated(node)) {
+            result |= LOCATED;
+        }
+        if (roadGoals.contains(node)) {
+            result |= ROAD;
+        }
+        if (refugeGoals.contains(node)) {
+            result |= REFUGE;
+        }
+        if (hydrantGoals.contains(node)) {
+            result |= HYDRANT;
+        }
+        if (gasStationGoals.contains(node)) {
+            result |= GAS_STATION;
+        }
+        return result;
+    }
+
+    /**
+       Check that every area of this topology is an area of the same kind in a world model. This catches a topology file that was loaded for a world model the kernel read from a different map.
+       @param world The world model.
+       @return True if the world model has all the areas of this topology.
+    */
+    private boolean describes(StandardWorldModel world) {
+        for (int i = 0; i < buildingIDs.size(); ++i) {
+            if (!(world.getEntity(buildingIDs.get(i)) instanceof Building)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < roadIDs.size(); ++i) {
+            if (!(world.getEntity(roadIDs.get(i)) instanceof Road)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+       Compute a fingerprint of the static map in a world model. Two world models of the same map have the same fingerprint whatever order their entities are stored in.
+       @param world The world model.
+       @return The fingerprint.
+    */
+    public static long fingerprint(StandardWorldModel world) {
+        long result = 0;
+        for (StandardEntity next : world) {
+            if (next instanceof Area) {
+                Area area = (Area)next;
+                long hash = mix(next.getID().getValue());
+                hash = mix(hash ^ (next instanceof Building ? 1 : 2));
+                if (area.isXDefined() && area.isYDefined()) {
+                    hash = mix(hash ^ area.getX());
+                    hash = mix(hash ^ area.getY());
+                }
+                for (EntityID neighbour : area.getNeighbours()) {
+                    hash = mix(hash ^ neighbour.getValue());
+                }
+                // Summing keeps the fingerprint independent of iteration order
+                result += hash;
+            }
+        }
+        return result;
+    }
+
+    /**
+       Find out if this topology was built from the same map as a world model with the given fingerprint.
+       @param otherFingerprint The fingerprint of the other world model.
+       @return True if the maps match.
+    */
+    public boolean matches(long otherFingerprint) {
+        return fingerprint == otherFingerprint;
+    }
+
+    /**
+       Get the fingerprint of the map this topology was built from.
+       @return The fingerprint.
+    */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+       Get the area graph.
+       @return The area graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Get the IDs of all buildings.
+       @return An unmodifiable list of building IDs.
+    */
+    public List<EntityID> getBuildingIDs() {
+        return buildingIDs;
+    }
+
+    /**
+       Get the IDs of all roads.
+       @return An unmodifiable list of road IDs.
+    */
+    public List<EntityID> getRoadIDs() {
+        return roadIDs;
+    }
+
+    /**
+       Get the IDs of all refuges.
+       @return An unmodifiable list of refuge IDs.
+    */
+    public List<EntityID> getRefugeIDs() {
+        return refugeIDs;
+    }
+
+    /**
+       Get the goal set of all buildings.
+       @return The building goal set.
+    */
+    public GoalSet getBuildingGoals() {
+        return buildingGoals;
+    }
+
+    /**
+       Get the goal set of all roads.
+       @return The road goal set.
+    */
+    public GoalSet getRoadGoals() {
+        return roadGoals;
+    }
+
+    /**
+       Get the goal set of all refuges.
+       @return The refuge goal set.
+    */
+    public GoalSet getRefugeGoals() {
+        return refugeGoals;
+    }
+
+    /**
+       Get the goal set of all hydrants.
+       @return The hydrant goal set.
+    */
+    public GoalSet getHydrantGoals() {
+        return hydrantGoals;
+    }
+
+    /**
+       Get the goal set of all gas stations.
+       @return The gas station goal set.
+    */
+    public GoalSet getGasStationGoals() {
+        return gasStationGoals;
+    }
+
+    /**
+       Get the precomputed distance field for one of the static goal sets, computed with every area passable. The returned field must not be repaired; use {@link DistanceField#share()} to get a copy-on-write handle.
+       @param goals The goal set.
+       @return The distance field, or null if there is none for this goal set.
+    */
+    DistanceField getDistanceField(GoalSet goals) {
+        if (goals == refugeGoals) {
+            return refugeField;
+        }
+        if (goals == hydrantGoals) {
+            return hydrantField;
+        }
+        if (goals == gasStationGoals) {
+            return gasStationField;
+        }
+        return null;
+    }
+
+    /**
+       Get the civilian field to one of the static goal sets, computed with every area passable and built on first use. Only the refuges have one, since that is where civilians run to.
+       @param goals The goal set.
+       @return The civilian field, or null if there is none for this goal set.
+    */
+    synchronized CivilianField getCivilianField(GoalSet goals) {
+        if (goals != refugeGoals) {
+            return null;
+        }
+        if (civilianRefugeField == null) {
+            civilianRefugeField = new CivilianField(graph.civilianGraph(), graph.size(), refugeGoals, new boolean[graph.size()]);
+        }
+        return civilianRefugeField;
+    }
+
+    /**
+       Get a landmark table for this map. The table is loaded from a file if one was saved for this map with the same number of landmarks; otherwise it is computed and, if a file was given, saved there for later runs.
+       @param count The number of landmarks.
+       @param file The file to load from and save to, or null to always compute the table.
+       @return The landmark table.
+    */
+    public synchronized LandmarkTable getLandmarks(int count, File file) {
+        int wanted = Math.min(count, graph.size());
+        if (landmarks != null && landmarks.getLandmarkCount() == wanted) {
+            return landmarks;
+        }
+        if (file != null && file.exists()) {
+            try {
+                LandmarkTable loaded = LandmarkTable.load(file, graph, fingerprint);
+                if (loaded != null && loaded.getLandmarkCount() == wanted) {
+                    Logger.debug("Loaded " + wanted + " landmarks from " + file);
+                    landmarks = loaded;
+                    return landmarks;
+                }
+            }
+            catch (IOException e) {
+                Logger.warn("Could not read landmarks from " + file, e);
+            }
+        }
+        landmarks = LandmarkTable.compute(graph, wanted, fingerprint);
+        if (file != null) {
+            try {
+                landmarks.save(file);
+            }
+            catch (IOException e) {
+                Logger.warn("Could not save landmarks to " + file, e);
+            }
+        }
+        return landmarks;
+    }
+
+    /**
+       Get the passages of this map, building them on first use. The shape of the areas is not part of the topology, so it is read from the world model the first time.
+       @param world A world model of this map.
+       @return The passages.
+    */
+    public synchronized PassageGraph getPassages(StandardWorldModel world) {
+        if (passages == null) {
+            passages = PassageGraph.build(graph, world);
+        }
+        return passages;
+    }
+
+    /**
+       Get a grid over the area centroids of this map, building it on first use. The grid is built again if a different cell size is asked for.
+       @param cellSize The cell size, usually the range most queries ask for.
+       @return The area grid.
+    */
+    public synchronized AreaGrid getAreaGrid(int cellSize) {
+        if (areaGrid == null || areaGridCellSize != cellSize) {
+            areaGrid = AreaGrid.build(graph, cellSize);
+            areaGridCellSize = cellSize;
+        }
+        return areaGrid;
+    }
+
+    /**
+       Get a KD-tree over the area centroids of this map, building it on first use.
+       @return The area tree.
+    */
+    public synchronized AreaTree getAreaTree() {
+        if (areaTree == null) {
+            areaTree = AreaTree.build(graph);
+        }
+        return areaTree;
+    }
+
+    /**
+       Get the table of areas within a range of each building. The table is loaded from a file if one was saved for this map with the same range; otherwise it is computed from the area grid and, if a file was given, saved there for later runs.
+       @param range The largest distance between centroids, inclusive.
+       @param file The file to load from and save to, or null to always compute the table.
+       @return The reach table.
+    */
+    public synchronized ReachTable getReachTable(int range, File file) {
+        if (reach != null && reach.getRange() == range) {
+            return reach;
+        }
+        if (file != null && file.exists()) {
+            try {
+                ReachTable loaded = ReachTable.load(file, graph, fingerprint, range);
+                if (loaded != null) {
+                    Logger.debug("Loaded reach table for range " + range + " from " + file);
+                    reach = loaded;
+                    return reach;
+                }
+            }
+            catch (IOException e) {
+                Logger.warn("Could not read reach table from " + file, e);
+            }
+        }
+        reach = ReachTable.compute(getAreaGrid(Math.max(range, 1)), range, fingerprint);
+        if (file != null) {
+            try {
+                reach.save(file);
+            }
+            catch (IOException e) {
+                Logger.warn("Could not save reach table to " + file, e);
+            }
+        }
+        return reach;
+    }
+
+    /**
+       Get the contraction hierarchy of this map, building it on first use.
+       @return The contraction hierarchy.
+    */
+    public synchronized ContractionHierarchy getHierarchy() {
+        if (hierarchy == null) {
+            long start = System.currentTimeMillis();
+            hierarchy = ContractionHierarchy.build(graph);
+            Logger.debug("Built contraction hierarchy with " + hierarchy.getArcCount() + " arcs in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return hierarchy;
+    }
+
+    private static long mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        h *= 0xBF58476D1CE4E5B9L;
+        return h ^ (h >>> 29);
+    }
+}
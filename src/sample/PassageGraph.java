@@ -0,0 +1,162 @@
+package sample;
+
+import java.util.List;
+
+import rescuecore2.worldmodel.EntityID;
+
+import rescuecore2.standard.entities.Area;
+import rescuecore2.standard.entities.Edge;
+import rescuecore2.standard.entities.StandardEntity;
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   The passages of a map: for every edge of an {@link AreaGraph}, the stretch of boundary the two areas share, read from the passable {@link Edge}s of the areas. Passages are numbered like the edges of the area graph, so passage {@code i} leads from the area that owns edge {@code i} to {@code graph.neighbourArray()[i]}. Edges with no matching boundary in the map, such as those of graphs built from plain neighbour lists, have no geometry and are treated as always open. A PassageGraph is immutable and can be shared; the blockades each agent knows about are kept by a {@link PassageRouter}.
+ */
+public final class PassageGraph {
+    private final AreaGraph graph;
+    private final int[] sources;
+    private final int[] startXs;
+    private final int[] startYs;
+    private final int[] endXs;
+    private final int[] endYs;
+    private final boolean[] known;
+
+    private PassageGraph(AreaGraph graph, int[] sources, int[] startXs, int[] startYs, int[] endXs, int[] endYs, boolean[] known) {
+        this.graph = graph;
+        this.sources = sources;
+        this.startXs = startXs;
+        this.startYs = startYs;
+        this.endXs = endXs;
+        this.endYs = endYs;
+        this.known = known;
+    }
+
+    /**
+       Find the passages of every area in a world model.
+       @param graph The area graph of the world model.
+       @param world The world model to read the area edges from.
+       @return A new PassageGraph.
+    */
+    public static PassageGraph build(AreaGraph graph, StandardWorldModel world) {
+        int[] neighbours = graph.neighbourArray();
+        int arcs = neighbours.length;
+        int[] sources = new int[arcs];
+        int[] startXs = new int[arcs];
+        int[] startYs = new int[arcs];
+        int[] endXs = new int[arcs];
+        int[] endYs = new int[arcs];
+        boolean[] known = new boolean[arcs];
+        for (int node = 0; node < graph.size(); ++node) {
+            StandardEntity entity = world.getEntity(graph.idOf(node));
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                sources[i] = node;
+                Edge edge = sharedEdge(entity, graph.idOf(neighbours[i]));
+                if (edge == null) {
+                    // The other side may list the boundary even if this side does not
+                    edge = sharedEdge(world.getEntity(graph.idOf(neighbours[i])), graph.idOf(node));
+                }
+                if (edge != null) {
+                    startXs[i] = edge.getStartX();
+                    startYs[i] = edge.getStartY();
+                    endXs[i] = edge.getEndX();
+                    endYs[i] = edge.getEndY();
+                    known[i] = true;
+                }
+            }
+        }
+        return new PassageGraph(graph, sources, startXs, startYs, endXs, endYs, known);
+    }
+
+    /**
+       Find the longest edge of an area that leads to a neighbour.
+    */
+    private static Edge sharedEdge(StandardEntity entity, EntityID neighbour) {
+        if (!(entity instanceof Area) || !((Area)entity).isEdgesDefined()) {
+            return null;
+        }
+        List<Edge> edges = ((Area)entity).getEdges();
+        Edge result = null;
+        double best = -1;
+        for (Edge next : edges) {
+            if (next.isPassable() && neighbour.equals(next.getNeighbour())) {
+                double length = Math.hypot(next.getEndX() - next.getStartX(), next.getEndY() - next.getStartY());
+                if (length > best) {
+                    best = length;
+                    result = next;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+       Get the area graph these passages belong to.
+       @return The area graph.
+    */
+    public AreaGraph getGraph() {
+        return graph;
+    }
+
+    /**
+       Get the area a passage leaves.
+       @param passage The passage.
+       @return The node index of the area.
+    */
+    public int getSource(int passage) {
+        return sources[passage];
+    }
+
+    /**
+       Find out if a passage has geometry.
+       @param passage The passage, numbered like the edges of the area graph.
+       @return True if the shared boundary is known.
+    */
+    public boolean isKnown(int passage) {
+        return known[passage];
+    }
+
+    /**
+       Get the x coordinate of the start of a passage.
+       @param passage The passage.
+       @return The x coordinate.
+    */
+    public int getStartX(int passage) {
+        return startXs[passage];
+    }
+
+    /**
+       Get the y coordinate of the start of a passage.
+       @param passage The passage.
+       @return The y coordinate.
+    */
+    public int getStartY(int passage) {
+        return startYs[passage];
+    }
+
+    /**
+       Get the x coordinate of the end of a passage.
+       @param passage The passage.
+       @return The x coordinate.
+    */
+    public int getEndX(int passage) {
+        return endXs[passage];
+    }
+
+    /**
+       Get the y coordinate of the end of a passage.
+       @param passage The passage.
+       @return The y coordinate.
+    */
+    public int getEndY(int passage) {
+        return endYs[passage];
+    }
+
+    /**
+       Get the length of a passage.
+       @param passage The passage.
+       @return The length, or zero if the passage has no geometry.
+    */
+    public double getLength(int passage) {
+        return known[passage] ? Math.hypot(endXs[passage] - startXs[passage], endYs[passage] - startYs[passage]) : 0;
+    }
+}
@@ -0,0 +1,437 @@
+package sample;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   Plans paths over the passages of a {@link PassageGraph} while taking the shape of known blockades into account. Each passage is only as wide as the longest stretch of it that no blockade polygon covers, and crossing an area from one passage to the next needs a corridor that keeps clear of the blockades inside the area, tried first in a straight line and then by way of the area's centroid. A passage or crossing that is narrower than the agent is closed, so a path never relies on a road whose way out is blocked even though the road itself can be entered. Passage widths are worked out when first needed after the blockades next to them change. A router belongs to one agent, since each agent knows about different blockades. Routing does not take a planning deadline: a search always runs until it settles a goal or runs out of passages, and never returns a partial path.
+ */
+public final class PassageRouter {
+    private static final double EPSILON = 1e-9;
+
+    private final PassageGraph passages;
+    private final AreaGraph graph;
+    private final double width;
+    private final int[][][] polygons;
+    private final double[] widths;
+    private final double[] pointXs;
+    private final double[] pointYs;
+    private final boolean[] stale;
+    private final double[] costs;
+    private final int[] parents;
+    private final int[] seen;
+    private final int[] path;
+    private final IntMinHeap heap;
+    private double[] cuts;
+    private double[] covered;
+    private int epoch;
+    private int touched;
+
+    /**
+       Create a router with no known blockades.
+       @param passages The shared passages.
+       @param width The width an agent needs to get through a passage, in millimetres.
+    */
+    public PassageRouter(PassageGraph passages, double width) {
+        this.passages = passages;
+        this.graph = passages.getGraph();
+        this.width = width;
+        int count = graph.neighbourArray().length;
+        polygons = new int[graph.size()][][];
+        widths = new double[count];
+        pointXs = new double[count];
+        pointYs = new double[count];
+        stale = new boolean[count];
+        costs = new double[count];
+        parents = new int[count];
+        seen = new int[count];
+        path = new int[Math.max(count, 1)];
+        heap = new IntMinHeap(count);
+        cuts = new double[16];
+        covered = new double[16];
+        Arrays.fill(stale, true);
+    }
+
+    /**
+       Tell the router which blockades an area currently has.
+       @param area The area.
+       @param apexes The apexes of each blockade in the area, as returned by {@code Blockade.getApexes()}.
+       @return True if the area is part of the graph.
+    */
+    public boolean setBlockades(EntityID area, Collection<int[]> apexes) {
+        int node = graph.indexOf(area);
+        if (node < 0) {
+            return false;
+        }
+        polygons[node] = apexes.isEmpty() ? null : apexes.toArray(new int[apexes.size()][]);
+        // Blockades on either side narrow a passage, so both directions must be worked out again
+        int[] neighbours = graph.neighbourArray();
+        for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+            stale[i] = true;
+        }
+        int[] predecessors = graph.predecessorArray();
+        for (int i = graph.firstPredecessor(node); i < graph.lastPredecessor(node); ++i) {
+            int previous = predecessors[i];
+            for (int j = graph.firstNeighbour(previous); j < graph.lastNeighbour(previous); ++j) {
+                if (neighbours[j] == node) {
+                    stale[j] = true;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+       Get the number of passages the last search settled.
+       @return The number of passages.
+    */
+    public int getTouchedPassages() {
+        return touched;
+    }
+
+    /**
+       Get the free width of the passage between two neighbouring areas.
+       @param from The area the passage leaves.
+       @param to The area the passage enters.
+       @return The width of the longest stretch of the passage that no known blockade covers, infinity if the passage has no geometry, or -1 if the areas are not neighbours.
+    */
+    public double getWidth(EntityID from, EntityID to) {
+        int passage = passage(graph.indexOf(from), graph.indexOf(to));
+        return passage < 0 ? -1 : widthOf(passage);
+    }
+
+    /**
+       Get the clearance of crossing an area: the width of the narrowest of the passage in, the corridor through the area and the passage out.
+       @param from The area we come from.
+       @param via The area to cross.
+       @param to The area we go on to.
+       @return The clearance, zero if the crossing is blocked, or -1 if the areas are not neighbours.
+    */
+    public double getClearance(EntityID from, EntityID via, EntityID to) {
+        int node = graph.indexOf(via);
+        int in = passage(graph.indexOf(from), node);
+        int out = passage(node, graph.indexOf(to));
+        if (in < 0 || out < 0) {
+            return -1;
+        }
+        return Math.min(Math.min(widthOf(in), widthOf(out)), corridor(node, pointXs[in], pointYs[in], pointXs[out], pointYs[out]));
+    }
+
+    /**
+       Find out if an agent can cross an area from one neighbour to another.
+       @param from The area we come from.
+       @param via The area to cross.
+       @param to The area we go on to.
+       @return True if the clearance is at least the agent's width.
+    */
+    public boolean canCross(EntityID from, EntityID via, EntityID to) {
+        return getClearance(from, via, to) >= width;
+    }
+
+    /**
+       Find the shortest path from the centroid of an area to the nearest goal along passages an agent fits through.
+       @param start The area we start in.
+       @param goals The goals.
+       @return The path, excluding the start unless the start is a goal, or null if no goal can be reached.
+    */
+    public SearchPath route(EntityID start, GoalSet goals) {
+        int node = graph.indexOf(start);
+        if (node < 0) {
+            return null;
+        }
+        return route(start, graph.getX(node), graph.getY(node), goals);
+    }
+
+    /**
+       Find the shortest path from a point in an area to the nearest goal along passages an agent fits through. The agent is already where it is, so leaving the start area only needs a way out that does not cross a blockade.
+       @param start The area we start in.
+       @param x The x coordinate of the agent.
+       @param y The y coordinate of the agent.
+       @param goals The goals.
+       @return The path, excluding the start unless the start is a goal, or null if no goal can be reached.
+    */
+    public SearchPath route(EntityID start, int x, int y, GoalSet goals) {
+        int first = graph.indexOf(start);
+        touched = 0;
+        if (first < 0) {
+            return null;
+        }
+        if (goals.contains(first)) {
+            return SearchPath.copyOf(graph, new int[] {first}, 1);
+        }
+        nextEpoch();
+        heap.clear();
+        int[] neighbours = graph.neighbourArray();
+        for (int i = graph.firstNeighbour(first); i < graph.lastNeighbour(first); ++i) {
+            if (widthOf(i) >= width && corridor(first, x, y, pointXs[i], pointYs[i]) > 0) {
+                reach(i, Math.hypot(pointXs[i] - x, pointYs[i] - y) + 1, -1);
+            }
+        }
+        while (!heap.isEmpty()) {
+            double cost = heap.peekKey();
+            int passage = heap.poll();
+            ++touched;
+            int node = neighbours[passage];
+            if (goals.contains(node)) {
+                return unpack(passage);
+            }
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                if (seen[i] == epoch && !heap.contains(i)) {
+                    // Already settled
+                    continue;
+                }
+                if (widthOf(i) >= width && corridor(node, pointXs[passage], pointYs[passage], pointXs[i], pointYs[i]) >= width) {
+                    reach(i, cost + Math.hypot(pointXs[i] - pointXs[passage], pointYs[i] - pointYs[passage]) + 1, passage);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void reach(int passage, double cost, int parent) {
+        if (seen[passage] != epoch || cost < costs[passage]) {
+            seen[passage] = epoch;
+            costs[passage] = cost;
+            parents[passage] = parent;
+            heap.offer(passage, cost);
+        }
+    }
+
+    private SearchPath unpack(int last) {
+        int[] neighbours = graph.neighbourArray();
+        int length = 0;
+        for (int passage = last; passage >= 0; passage = parents[passage]) {
+            path[length++] = neighbours[passage];
+        }
+        for (int i = 0; i < length / 2; ++i) {
+            int swap = path[i];
+            path[i] = path[length - 1 - i];
+            path[length - 1 - i] = swap;
+        }
+        return SearchPath.copyOf(graph, path, length);
+    }
+
+    /**
+       Find the passage between two nodes.
+       @return The passage, or -1 if there is none.
+    */
+    private int passage(int from, int to) {
+        if (from < 0 || to < 0) {
+            return -1;
+        }
+        int[] neighbours = graph.neighbourArray();
+        for (int i = graph.firstNeighbour(from); i < graph.lastNeighbour(from); ++i) {
+            if (neighbours[i] == to) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+       Get the free width of a passage, working it out and choosing the point to pass through if blockades nearby have changed.
+    */
+    private double widthOf(int passage) {
+        if (!stale[passage]) {
+            return widths[passage];
+        }
+        stale[passage] = false;
+        int from = passages.getSource(passage);
+        int to = graph.neighbourArray()[passage];
+        if (!passages.isKnown(passage)) {
+            widths[passage] = Double.POSITIVE_INFINITY;
+            pointXs[passage] = (graph.getX(from) + graph.getX(to)) / 2.0;
+            pointYs[passage] = (graph.getY(from) + graph.getY(to)) / 2.0;
+            return widths[passage];
+        }
+        double ax = passages.getStartX(passage);
+        double ay = passages.getStartY(passage);
+        double bx = passages.getEndX(passage);
+        double by = passages.getEndY(passage);
+        int count = 0;
+        count = cover(polygons[from], ax, ay, bx, by, count);
+        count = cover(polygons[to], ax, ay, bx, by, count);
+        // Merge the covered stretches and keep the longest gap between them
+        sortPairs(covered, count);
+        double best = 0;
+        double bestStart = 0;
+        double bestEnd = 0;
+        double reached = 0;
+        for (int i = 0; i <= count; ++i) {
+            double start = i < count ? covered[2 * i] : 1;
+            if (start - reached > best) {
+                best = start - reached;
+                bestStart = reached;
+                bestEnd = start;
+            }
+            if (i < count) {
+                reached = Math.max(reached, covered[2 * i + 1]);
+            }
+        }
+        double middle = (bestStart + bestEnd) / 2;
+        widths[passage] = best * Math.hypot(bx - ax, by - ay);
+        pointXs[passage] = ax + (bx - ax) * middle;
+        pointYs[passage] = ay + (by - ay) * middle;
+        return widths[passage];
+    }
+
+    /**
+       Add the stretches of a segment that lie inside any of a set of polygons to the covered list, as pairs of segment parameters.
+       @return The new number of covered stretches.
+    */
+    private int cover(int[][] shapes, double ax, double ay, double bx, double by, int count) {
+        if (shapes == null) {
+            return count;
+        }
+        for (int[] shape : shapes) {
+            int points = shape.length / 2;
+            if (points < 3) {
+                continue;
+            }
+            int found = 0;
+            cuts = ensure(cuts, points + 2);
+            cuts[found++] = 0;
+            cuts[found++] = 1;
+            for (int i = 0; i < points; ++i) {
+                int j = (i + 1) % points;
+                double t = crossing(ax, ay, bx, by, shape[2 * i], shape[2 * i + 1], shape[2 * j], shape[2 * j + 1]);
+                if (t >= 0) {
+                    cuts[found++] = t;
+                }
+            }
+            Arrays.sort(cuts, 0, found);
+            for (int i = 0; i + 1 < found; ++i) {
+                if (cuts[i + 1] - cuts[i] < EPSILON) {
+                    continue;
+                }
+                double middle = (cuts[i] + cuts[i + 1]) / 2;
+                if (inside(shape, ax + (bx - ax) * middle, ay + (by - ay) * middle)) {
+                    covered = ensure(covered, 2 * count + 2);
+                    covered[2 * count] = cuts[i];
+                    covered[2 * count + 1] = cuts[i + 1];
+                    ++count;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+       Get the width of the widest corridor from one point to another through an area: twice the distance from the corridor to the nearest blockade, trying a straight line first and then a bend at the centroid.
+       @return The width, zero if both ways cross a blockade, or infinity if the area has no blockades.
+    */
+    private double corridor(int node, double ax, double ay, double bx, double by) {
+        int[][] shapes = polygons[node];
+        if (shapes == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double straight = 2 * distance(shapes, ax, ay, bx, by);
+        if (straight >= width || !graph.isLocated(node)) {
+            return straight;
+        }
+        double cx = graph.getX(node);
+        double cy = graph.getY(node);
+        double bent = 2 * Math.min(distance(shapes, ax, ay, cx, cy), distance(shapes, cx, cy, bx, by));
+        return Math.max(straight, bent);
+    }
+
+    /**
+       Get the distance from a segment to the nearest of a set of polygons, or zero if the segment touches one.
+    */
+    private static double distance(int[][] shapes, double ax, double ay, double bx, double by) {
+        double result = Double.POSITIVE_INFINITY;
+        for (int[] shape : shapes) {
+            int points = shape.length / 2;
+            if (points < 3) {
+                continue;
+            }
+            if (inside(shape, ax, ay) || inside(shape, bx, by)) {
+                return 0;
+            }
+            for (int i = 0; i < points; ++i) {
+                int j = (i + 1) % points;
+                double px = shape[2 * i];
+                double py = shape[2 * i + 1];
+                double qx = shape[2 * j];
+                double qy = shape[2 * j + 1];
+                if (crossing(ax, ay, bx, by, px, py, qx, qy) >= 0) {
+                    return 0;
+                }
+                result = Math.min(result, Math.min(Math.min(pointToSegment(px, py, ax, ay, bx, by), pointToSegment(qx, qy, ax, ay, bx, by)), Math.min(pointToSegment(ax, ay, px, py, qx, qy), pointToSegment(bx, by, px, py, qx, qy))));
+            }
+        }
+        return result;
+    }
+
+    /**
+       Find where segment AB crosses segment PQ.
+       @return The parameter along AB of the crossing, or -1 if they do not cross.
+    */
+    private static double crossing(double ax, double ay, double bx, double by, double px, double py, double qx, double qy) {
+        double rx = bx - ax;
+        double ry = by - ay;
+        double sx = qx - px;
+        double sy = qy - py;
+        double denominator = rx * sy - ry * sx;
+        if (Math.abs(denominator) < EPSILON) {
+            return -1;
+        }
+        double t = ((px - ax) * sy - (py - ay) * sx) / denominator;
+        double u = ((px - ax) * ry - (py - ay) * rx) / denominator;
+        return t >= 0 && t <= 1 && u >= 0 && u <= 1 ? t : -1;
+    }
+
+    private static boolean inside(int[] shape, double x, double y) {
+        int points = shape.length / 2;
+        boolean result = false;
+        for (int i = 0, j = points - 1; i < points; j = i++) {
+            double xi = shape[2 * i];
+            double yi = shape[2 * i + 1];
+            double xj = shape[2 * j];
+            double yj = shape[2 * j + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                result = !result;
+            }
+        }
+        return result;
+    }
+
+    private static double pointToSegment(double x, double y, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double squared = dx * dx + dy * dy;
+        double t = squared == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / squared));
+        return Math.hypot(x - (ax + t * dx), y - (ay + t * dy));
+    }
+
+    /**
+       Sort the first {@code count} pairs of an array by their first element. The lists are short, so insertion sort is enough.
+    */
+    private static void sortPairs(double[] pairs, int count) {
+        for (int i = 1; i < count; ++i) {
+            double start = pairs[2 * i];
+            double end = pairs[2 * i + 1];
+            int j = i - 1;
+            while (j >= 0 && pairs[2 * j] > start) {
+                pairs[2 * j + 2] = pairs[2 * j];
+                pairs[2 * j + 3] = pairs[2 * j + 1];
+                --j;
+            }
+            pairs[2 * j + 2] = start;
+            pairs[2 * j + 3] = end;
+        }
+    }
+
+    private static double[] ensure(double[] array, int length) {
+        return array.length >= length ? array : Arrays.copyOf(array, Math.max(length, array.length * 2));
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(seen, 0);
+            epoch = 1;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   A bounded least-recently-used cache of search results keyed by start node, goal set and search mode. The cache counts how many cached paths pass through each node so that invalidating a node nobody routes through costs nothing. Keys are kept in an open addressed table of primitive longs and the order of use in a linked list threaded through the entry arrays, so lookups and evictions allocate nothing; only storing a new path allocates the array that holds it.
+ */
+final class PathCache {
+    private static final int[] NO_PATH = new int[0];
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final int[] references;
+    // Slots of the hash table hold an entry index plus one, or zero if they are empty
+    private final int[] table;
+    private final int mask;
+    private final long[] keys;
+    private final int[][] paths;
+    // Entries in order of use, from newest to oldest. Free entries are chained through older.
+    private final int[] newer;
+    private final int[] older;
+    private int newest;
+    private int oldest;
+    private int free;
+    private int hits;
+    private int misses;
+
+    /**
+       Create a path cache.
+       @param size The number of nodes in the graph.
+       @param capacity The maximum number of cached paths.
+    */
+    PathCache(int size, int capacity) {
+        this.capacity = capacity;
+        this.references = new int[size];
+        int slots = 2;
+        while (slots < 2 * capacity) {
+            slots <<= 1;
+        }
+        table = new int[slots];
+        mask = slots - 1;
+        keys = new long[capacity];
+        paths = new int[capacity][];
+        newer = new int[capacity];
+        older = new int[capacity];
+        reset();
+    }
+
+    /**
+       Build a cache key.
+       @param start The start node index.
+       @param goals The key of the goal set. This must be non-zero.
+       @param mode The search mode, between 0 and 3.
+       @return The key.
+    */
+    static long key(int start, int goals, int mode) {
+        return ((((long)goals << 2) | mode) << 32) | (start & 0xFFFFFFFFL);
+    }
+
+    /**
+       Get the maximum number of cached paths.
+       @return The capacity.
+    */
+    int getCapacity() {
+        return capacity;
+    }
+
+    /**
+       Look up a path. A lookup counts as a hit or a miss.
+       @param key The cache key.
+       @return The cached path, an empty array if the search is known to fail, or null if nothing is cached.
+    */
+    int[] get(long key) {
+        int entry = find(key);
+        if (entry == NONE) {
+            ++misses;
+            return null;
+        }
+        ++hits;
+        unlink(entry);
+        link(entry);
+        return paths[entry];
+    }
+
+    /**
+       Store a search result, evicting the least recently used entry if the cache is full.
+       @param key The cache key.
+       @param path The path buffer.
+       @param length The length of the path, or -1 if the search failed.
+    */
+    void put(long key, int[] path, int length) {
+        if (capacity == 0) {
+            return;
+        }
+        int[] stored = length < 0 ? NO_PATH : new int[length];
+        for (int i = 0; i < stored.length; ++i) {
+            stored[i] = path[i];
+            ++references[stored[i]];
+        }
+        int entry = find(key);
+        if (entry != NONE) {
+            release(paths[entry]);
+            paths[entry] = stored;
+            unlink(entry);
+            link(entry);
+            return;
+        }
+        if (free == NONE) {
+            remove(oldest);
+        }
+        entry = free;
+        free = older[entry];
+        keys[entry] = key;
+        paths[entry] = stored;
+        int slot = home(key);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+        link(entry);
+    }
+
+    /**
+       Drop every cached path that passes through a node.
+       @param node The node index.
+    */
+    void invalidate(int node) {
+        if (references[node] == 0) {
+            return;
+        }
+        for (int entry = newest; entry != NONE;) {
+            int next = older[entry];
+            if (passesThrough(paths[entry], node)) {
+                remove(entry);
+            }
+            entry = next;
+        }
+    }
+
+    /**
+       Drop every cached path.
+    */
+    void clear() {
+        for (int entry = newest; entry != NONE; entry = older[entry]) {
+            release(paths[entry]);
+            paths[entry] = null;
+        }
+        Arrays.fill(table, 0);
+        reset();
+    }
+
+    /**
+       Get the number of lookups that found a cached path.
+       @return The number of hits.
+    */
+    int getHits() {
+        return hits;
+    }
+
+    /**
+       Get the number of lookups that found nothing.
+       @return The number of misses.
+    */
+    int getMisses() {
+        return misses;
+    }
+
+    private void reset() {
+        newest = NONE;
+        oldest = NONE;
+        for (int i = 0; i < capacity; ++i) {
+            older[i] = i + 1 < capacity ? i + 1 : NONE;
+        }
+        free = capacity == 0 ? NONE : 0;
+    }
+
+    private int home(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash >>> 32) & mask;
+    }
+
+    private int find(long key) {
+        for (int slot = home(key); table[slot] != 0; slot = (slot + 1) & mask) {
+            int entry = table[slot] - 1;
+            if (keys[entry] == key) {
+                return entry;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+       Take an entry out of the table and the list of use, and put it on the free list.
+    */
+    private void remove(int entry) {
+        int hole = home(keys[entry]);
+        while (table[hole] != entry + 1) {
+            hole = (hole + 1) & mask;
+        }
+        // Shift later entries of the probe run back so none is cut off from its home slot
+        for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            int home = home(keys[table[slot] - 1]);
+            boolean stays = hole < slot ? (home > hole && home <= slot) : (home > hole || home <= slot);
+            if (!stays) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = 0;
+        release(paths[entry]);
+        paths[entry] = null;
+        unlink(entry);
+        older[entry] = free;
+        free = entry;
+    }
+
+    private void link(int entry) {
+        newer[entry] = NONE;
+        older[entry] = newest;
+        if (newest == NONE) {
+            oldest = entry;
+        }
+        else {
+            newer[newest] = entry;
+        }
+        newest = entry;
+    }
+
+    private void unlink(int entry) {
+        if (newer[entry] == NONE) {
+            newest = older[entry];
+        }
+        else {
+            older[newer[entry]] = older[entry];
+        }
+        if (older[entry] == NONE) {
+            oldest = newer[entry];
+        }
+        else {
+            newer[older[entry]] = newer[entry];
+        }
+    }
+
+    private void release(int[] path) {
+        for (int next : path) {
+            --references[next];
+        }
+    }
+
+    private static boolean passesThrough(int[] path, int node) {
+        for (int next : path) {
+            if (next == node) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
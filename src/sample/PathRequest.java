@@ -0,0 +1,37 @@
+package sample;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   One query in a batch passed to {@link SampleSearch#breadthFirstSearch(java.util.List)}: a start location and the goal set to find the nearest member of.
+ */
+public final class PathRequest {
+    private final EntityID start;
+    private final GoalSet goals;
+
+    /**
+       Create a path request.
+       @param start The location to start from.
+       @param goals The goals. Requests are grouped by goal set, so requests that should be answered together must use the same GoalSet object.
+    */
+    public PathRequest(EntityID start, GoalSet goals) {
+        this.start = start;
+        this.goals = goals;
+    }
+
+    /**
+       Get the start location.
+       @return The start location.
+    */
+    public EntityID getStart() {
+        return start;
+    }
+
+    /**
+       Get the goal set.
+       @return The goals.
+    */
+    public GoalSet getGoals() {
+        return goals;
+    }
+}
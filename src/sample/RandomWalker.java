@@ -0,0 +1,140 @@
+package sample;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   Generates random walks over an {@link AreaGraph} without allocating. Each step picks one of the neighbours that the walk has not visited yet, reading them straight from the graph's neighbour arrays, and visited areas are tracked with an epoch-stamped array. In frontier mode the choice is weighted towards areas that have not been sensed for a long time, so an idle agent tends to move on to new ground instead of going back over areas it has just seen.
+ */
+public final class RandomWalker {
+    /** Areas that have not been sensed for this many timesteps are all weighted alike. */
+    private static final int MAX_AGE = 1000;
+
+    private final AreaGraph graph;
+    private final int[] visited;
+    private final int[] sensed;
+    private final int[] buffer;
+    private int epoch;
+    private int now;
+    private boolean frontier;
+
+    /**
+       Create a random walker.
+       @param graph The graph to walk over.
+       @param maxLength The maximum number of areas in a walk.
+    */
+    public RandomWalker(AreaGraph graph, int maxLength) {
+        this.graph = graph;
+        int size = graph.size();
+        visited = new int[size];
+        sensed = new int[size];
+        buffer = new int[Math.max(maxLength, 1)];
+    }
+
+    /**
+       Turn frontier mode on or off.
+       @param bias True to prefer neighbours that have not been sensed recently, false to choose uniformly.
+    */
+    public void setFrontierBias(boolean bias) {
+        frontier = bias;
+    }
+
+    /**
+       Start a new timestep. Areas sensed from now on count as sensed at this timestep.
+    */
+    public void tick() {
+        ++now;
+    }
+
+    /**
+       Record that an area was sensed during the current timestep.
+       @param area The area.
+    */
+    public void sensed(EntityID area) {
+        int node = graph.indexOf(area);
+        if (node >= 0) {
+            // Stored one higher so that zero means never sensed
+            sensed[node] = now + 1;
+        }
+    }
+
+    /**
+       Generate a random walk.
+       @param start The location to start from.
+       @param random The random number generator to use.
+       @return The walk, starting with the start location.
+    */
+    public SearchPath walk(EntityID start, Random random) {
+        int node = graph.indexOf(start);
+        if (node < 0) {
+            return SearchPath.singleton(start);
+        }
+        int length = walk(node, random, buffer);
+        return SearchPath.copyOf(graph, buffer, length);
+    }
+
+    /**
+       Generate a random walk over node indices into a caller supplied array. The walk stops when the array is full or when every neighbour of the last area has already been visited. This does not allocate.
+       @param start The node index to start from.
+       @param random The random number generator to use.
+       @param path The array to write the walk into, starting with the start node.
+       @return The number of nodes in the walk.
+    */
+    public int walk(int start, Random random, int[] path) {
+        nextEpoch();
+        int[] neighbours = graph.neighbourArray();
+        int length = 0;
+        int current = start;
+        while (true) {
+            path[length++] = current;
+            visited[current] = epoch;
+            if (length == path.length) {
+                break;
+            }
+            int first = graph.firstNeighbour(current);
+            int last = graph.lastNeighbour(current);
+            // First pass: total weight of the unvisited neighbours
+            long total = 0;
+            for (int i = first; i < last; ++i) {
+                if (visited[neighbours[i]] != epoch) {
+                    total += weight(neighbours[i]);
+                }
+            }
+            if (total == 0) {
+                // We reached a dead-end.
+                break;
+            }
+            // Second pass: find the neighbour the sample falls on
+            long pick = frontier ? (long)(random.nextDouble() * total) : random.nextInt((int)total);
+            int next = -1;
+            for (int i = first; i < last; ++i) {
+                int neighbour = neighbours[i];
+                if (visited[neighbour] != epoch) {
+                    next = neighbour;
+                    pick -= weight(neighbour);
+                    if (pick < 0) {
+                        break;
+                    }
+                }
+            }
+            current = next;
+        }
+        return length;
+    }
+
+    private int weight(int node) {
+        if (!frontier) {
+            return 1;
+        }
+        return sensed[node] == 0 ? MAX_AGE + 1 : Math.min(MAX_AGE, now + 1 - sensed[node]) + 1;
+    }
+
+    private void nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+    }
+}
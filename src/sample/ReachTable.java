@@ -0,0 +1,220 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+   Which areas are within a fixed range of each building, such as the extinguish distance of a fire brigade, measured between centroids. Both directions are stored as adjacency arrays indexed by the node indices of an {@link AreaGraph}: for each building the areas it can be reached from, and for each area the buildings it reaches, each list sorted by node index. A table is immutable and can be shared between agents and saved beside the map.
+ */
+public final class ReachTable {
+    private static final int MAGIC = 0x52434831;
+
+    private final long fingerprint;
+    private final int range;
+    private final int[] areaOffsets;
+    private final int[] areas;
+    private final int[] buildingOffsets;
+    private final int[] buildings;
+
+    private ReachTable(long fingerprint, int range, int[] areaOffsets, int[] areas) {
+        this.fingerprint = fingerprint;
+        this.range = range;
+        this.areaOffsets = areaOffsets;
+        this.areas = areas;
+        int size = areaOffsets.length - 1;
+        // Building lists come out sorted because the buildings are visited in node order
+        buildingOffsets = new int[size + 1];
+        for (int i = 0; i < areas.length; ++i) {
+            ++buildingOffsets[areas[i] + 1];
+        }
+        for (int node = 0; node < size; ++node) {
+            buildingOffsets[node + 1] += buildingOffsets[node];
+        }
+        int[] fill = Arrays.copyOf(buildingOffsets, size);
+        buildings = new int[areas.length];
+        for (int building = 0; building < size; ++building) {
+            for (int i = areaOffsets[building]; i < areaOffsets[building + 1]; ++i) {
+                buildings[fill[areas[i]]++] = building;
+            }
+        }
+    }
+
+    /**
+       Find the areas within range of every building of a graph.
+       @param grid A grid over the area centroids of the graph.
+       @param range The largest distance between the centroids, inclusive.
+       @param fingerprint The fingerprint of the map, stored so a saved table can be checked when it is loaded.
+       @return A new ReachTable.
+    */
+    public static ReachTable compute(AreaGrid grid, int range, long fingerprint) {
+        AreaGraph graph = grid.getGraph();
+        int size = graph.size();
+        int[] areaOffsets = new int[size + 1];
+        int[] areas = new int[size];
+        int[] found = new int[size];
+        int count = 0;
+        for (int node = 0; node < size; ++node) {
+            if (graph.isBuilding(node)) {
+                int n = grid.withinReach(node, range, found);
+                Arrays.sort(found, 0, n);
+                if (count + n > areas.length) {
+                    areas = Arrays.copyOf(areas, Math.max(areas.length * 2, count + n));
+                }
+                System.arraycopy(found, 0, areas, count, n);
+                count += n;
+            }
+            areaOffsets[node + 1] = count;
+        }
+        return new ReachTable(fingerprint, range, areaOffsets, Arrays.copyOf(areas, count));
+    }
+
+    /**
+       Load a table saved by {@link #save(File)}.
+       @param file The file to read.
+       @param graph The graph the table must match.
+       @param fingerprint The fingerprint of the current map.
+       @param range The range the table must have been computed for.
+       @return The table, or null if the file was written for a different map or range.
+       @throws IOException If the file cannot be read.
+    */
+    public static ReachTable load(File file, AreaGraph graph, long fingerprint, int range) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate((int)channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full
+            }
+            buffer.flip();
+            if (buffer.remaining() < 24 || buffer.getInt() != MAGIC || buffer.getLong() != fingerprint || buffer.getInt() != graph.size() || buffer.getInt() != range) {
+                return null;
+            }
+            int count = buffer.getInt();
+            if (count < 0 || buffer.remaining() != 4 * (graph.size() + 1 + count)) {
+                return null;
+            }
+            int[] areaOffsets = new int[graph.size() + 1];
+            int[] areas = new int[count];
+            buffer.asIntBuffer().get(areaOffsets);
+            buffer.position(buffer.position() + 4 * areaOffsets.length);
+            buffer.asIntBuffer().get(areas);
+            return new ReachTable(fingerprint, range, areaOffsets, areas);
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+       Save this table so that later runs on the same map can load it instead of computing it. Only the areas of each building are written; the buildings of each area are found again when the table is loaded.
+       @param file The file to write.
+       @throws IOException If the file cannot be written.
+    */
+    public void save(File file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(24 + 4 * (areaOffsets.length + areas.length));
+        buffer.putInt(MAGIC);
+        buffer.putLong(fingerprint);
+        buffer.putInt(areaOffsets.length - 1);
+        buffer.putInt(range);
+        buffer.putInt(areas.length);
+        buffer.asIntBuffer().put(areaOffsets);
+        buffer.position(buffer.position() + 4 * areaOffsets.length);
+        buffer.asIntBuffer().put(areas);
+        buffer.rewind();
+        MapTopology.replace(file, buffer);
+    }
+
+    /**
+       Get the range this table was computed for.
+       @return The range.
+    */
+    public int getRange() {
+        return range;
+    }
+
+    /**
+       Get the start of the range of areas a building can be reached from.
+       @param building The node index of the building.
+       @return An index into {@link #areaArray()}. Areas that are not buildings have an empty range.
+    */
+    public int firstArea(int building) {
+        return areaOffsets[building];
+    }
+
+    /**
+       Get the end (exclusive) of the range of areas a building can be reached from.
+       @param building The node index of the building.
+       @return One past the last index into {@link #areaArray()}.
+    */
+    public int lastArea(int building) {
+        return areaOffsets[building + 1];
+    }
+
+    /**
+       Get the flat array of areas. This exposes internal state for speed and must not be modified.
+       @return The node indices of the areas of every building.
+    */
+    public int[] areaArray() {
+        return areas;
+    }
+
+    /**
+       Get the start of the range of buildings an area reaches.
+       @param area The node index of the area.
+       @return An index into {@link #buildingArray()}.
+    */
+    public int firstBuilding(int area) {
+        return buildingOffsets[area];
+    }
+
+    /**
+       Get the end (exclusive) of the range of buildings an area reaches.
+       @param area The node index of the area.
+       @return One past the last index into {@link #buildingArray()}.
+    */
+    public int lastBuilding(int area) {
+        return buildingOffsets[area + 1];
+    }
+
+    /**
+       Get the flat array of buildings. This exposes internal state for speed and must not be modified.
+       @return The node indices of the buildings of every area.
+    */
+    public int[] buildingArray() {
+        return buildings;
+    }
+
+    /**
+       Find out if a building is within range of an area.
+       @param area The node index of the area, or -1 if it is not part of the graph.
+       @param building The node index of the building, or -1 if it is not part of the graph.
+       @return True if the centroids are within range.
+    */
+    public boolean reaches(int area, int building) {
+        if (area < 0 || building < 0) {
+            return false;
+        }
+        return Arrays.binarySearch(buildings, buildingOffsets[area], buildingOffsets[area + 1], building) >= 0;
+    }
+
+    /**
+       Replace the contents of a goal set with the areas a building can be reached from.
+       @param building The node index of the building, or -1 if it is not part of the graph.
+       @param goals The goal set to fill. It must not be frozen.
+       @return The number of goals.
+    */
+    public int fillAreas(int building, GoalSet goals) {
+        goals.clear();
+        if (building < 0) {
+            return 0;
+        }
+        for (int i = areaOffsets[building]; i < areaOffsets[building + 1]; ++i) {
+            goals.add(areas[i]);
+        }
+        return areaOffsets[building + 1] - areaOffsets[building];
+    }
+}
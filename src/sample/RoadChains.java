@@ -0,0 +1,313 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   A condensed overlay of an {@link AreaGraph} in which every maximal chain of roads with exactly two neighbours becomes a single super-edge between the areas at its ends. Areas that are not inside a chain are the core of the overlay. Each core area has a list of overlay arcs: plain edges to neighbouring core areas, and one arc for each chain it ends, which carries the areas inside the chain, its length in areas and its summed centroid length. Chains are only formed where the edges go both ways, so the overlay is valid for directed graphs too. The overlay is immutable and can be shared between searches; passability is left to the searches.
+ */
+final class RoadChains {
+    private final int[] chainOf;
+    private final int[] positionOf;
+    private final int[] chainStart;
+    private final int[] inner;
+    private final int[] chainFrom;
+    private final int[] chainTo;
+    private final double[] chainLength;
+    private final int[] arcOffsets;
+    private final int[] arcSources;
+    private final int[] arcTargets;
+    private final int[] arcChains;
+    private final boolean[] arcReversed;
+
+    private RoadChains(int[] chainOf, int[] positionOf, int[] chainStart, int[] inner, int[] chainFrom, int[] chainTo, double[] chainLength, int[] arcOffsets, int[] arcSources, int[] arcTargets, int[] arcChains, boolean[] arcReversed) {
+        this.chainOf = chainOf;
+        this.positionOf = positionOf;
+        this.chainStart = chainStart;
+        this.inner = inner;
+        this.chainFrom = chainFrom;
+        this.chainTo = chainTo;
+        this.chainLength = chainLength;
+        this.arcOffsets = arcOffsets;
+        this.arcSources = arcSources;
+        this.arcTargets = arcTargets;
+        this.arcChains = arcChains;
+        this.arcReversed = arcReversed;
+    }
+
+    /**
+       Find the road chains of a graph.
+       @param graph The graph.
+       @return A new RoadChains.
+    */
+    static RoadChains compile(AreaGraph graph) {
+        int size = graph.size();
+        int[] neighbours = graph.neighbourArray();
+        boolean[] interior = new boolean[size];
+        for (int node = 0; node < size; ++node) {
+            interior[node] = canCondense(graph, node);
+        }
+        int[] chainOf = new int[size];
+        int[] positionOf = new int[size];
+        Arrays.fill(chainOf, -1);
+        int[] chainStart = new int[size + 1];
+        int[] inner = new int[size];
+        int[] chainFrom = new int[size];
+        int[] chainTo = new int[size];
+        double[] chainLength = new double[size];
+        int chains = 0;
+        int count = 0;
+        // The second pass finds cycles with no core area, and one area of each cycle joins the core
+        for (int pass = 0; pass < 2; ++pass) {
+            for (int node = 0; node < size; ++node) {
+                if (pass == 0 && interior[node]) {
+                    continue;
+                }
+                if (pass == 1) {
+                    if (!interior[node] || chainOf[node] >= 0) {
+                        continue;
+                    }
+                    interior[node] = false;
+                }
+                for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                    int neighbour = neighbours[i];
+                    if (!interior[neighbour] || chainOf[neighbour] >= 0) {
+                        continue;
+                    }
+                    // Walk along the chain until it reaches the core again
+                    chainStart[chains] = count;
+                    chainFrom[chains] = node;
+                    double length = 0;
+                    int previous = node;
+                    int current = neighbour;
+                    while (interior[current]) {
+                        length += graph.edgeLength(previous, current);
+                        chainOf[current] = chains;
+                        positionOf[current] = count - chainStart[chains];
+                        inner[count++] = current;
+                        int first = neighbours[graph.firstNeighbour(current)];
+                        int step = first == previous ? neighbours[graph.firstNeighbour(current) + 1] : first;
+                        previous = current;
+                        current = step;
+                    }
+                    length += graph.edgeLength(previous, current);
+                    chainTo[chains] = current;
+                    chainLength[chains] = length;
+                    ++chains;
+                }
+            }
+        }
+        chainStart[chains] = count;
+        int[] arcOffsets = new int[size + 1];
+        for (int node = 0; node < size; ++node) {
+            arcOffsets[node + 1] = arcOffsets[node];
+            if (interior[node]) {
+                continue;
+            }
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                if (arcKind(neighbours[i], node, interior, chainOf, positionOf, chainStart, chainFrom, chainTo) != 0) {
+                    ++arcOffsets[node + 1];
+                }
+            }
+        }
+        int arcs = arcOffsets[size];
+        int[] arcSources = new int[arcs];
+        int[] arcTargets = new int[arcs];
+        int[] arcChains = new int[arcs];
+        boolean[] arcReversed = new boolean[arcs];
+        int arc = 0;
+        for (int node = 0; node < size; ++node) {
+            if (interior[node]) {
+                continue;
+            }
+            for (int i = graph.firstNeighbour(node); i < graph.lastNeighbour(node); ++i) {
+                int neighbour = neighbours[i];
+                int kind = arcKind(neighbour, node, interior, chainOf, positionOf, chainStart, chainFrom, chainTo);
+                if (kind == 0) {
+                    continue;
+                }
+                arcSources[arc] = node;
+                if (kind == 1) {
+                    arcTargets[arc] = neighbour;
+                    arcChains[arc] = -1;
+                }
+                else {
+                    int chain = chainOf[neighbour];
+                    arcReversed[arc] = kind == 3;
+                    arcTargets[arc] = kind == 3 ? chainFrom[chain] : chainTo[chain];
+                    arcChains[arc] = chain;
+                }
+                ++arc;
+            }
+        }
+        return new RoadChains(chainOf, positionOf, Arrays.copyOf(chainStart, chains + 1), Arrays.copyOf(inner, count), Arrays.copyOf(chainFrom, chains), Arrays.copyOf(chainTo, chains), Arrays.copyOf(chainLength, chains), arcOffsets, arcSources, arcTargets, arcChains, arcReversed);
+    }
+
+    /**
+       A road can be condensed if it has exactly two neighbours and exactly those two neighbours lead back to it.
+    */
+    private static boolean canCondense(AreaGraph graph, int node) {
+        if (graph.isBuilding(node) || graph.lastNeighbour(node) - graph.firstNeighbour(node) != 2 || graph.lastPredecessor(node) - graph.firstPredecessor(node) != 2) {
+            return false;
+        }
+        int[] neighbours = graph.neighbourArray();
+        int[] predecessors = graph.predecessorArray();
+        int a = neighbours[graph.firstNeighbour(node)];
+        int b = neighbours[graph.firstNeighbour(node) + 1];
+        int c = predecessors[graph.firstPredecessor(node)];
+        int d = predecessors[graph.firstPredecessor(node) + 1];
+        return a != node && b != node && ((a == c && b == d) || (a == d && b == c));
+    }
+
+    /**
+       Classify the edge from a core node to a neighbour.
+       @return 0 if the edge is covered by another arc, 1 for an edge to another core node, 2 for the start of a chain and 3 for the end of a chain walked backwards.
+    */
+    private static int arcKind(int neighbour, int node, boolean[] interior, int[] chainOf, int[] positionOf, int[] chainStart, int[] chainFrom, int[] chainTo) {
+        if (!interior[neighbour]) {
+            return 1;
+        }
+        int chain = chainOf[neighbour];
+        int last = chainStart[chain + 1] - chainStart[chain] - 1;
+        if (positionOf[neighbour] == 0 && chainFrom[chain] == node) {
+            return 2;
+        }
+        if (positionOf[neighbour] == last && chainTo[chain] == node) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+       Get the chain an area lies inside.
+       @param node The node index.
+       @return The chain, or -1 if the node is part of the core.
+    */
+    int chainOf(int node) {
+        return chainOf[node];
+    }
+
+    /**
+       Get the position of an area inside its chain, counting from the area next to {@link #chainFrom(int)}.
+       @param node The node index of an area inside a chain.
+       @return The position.
+    */
+    int positionOf(int node) {
+        return positionOf[node];
+    }
+
+    /**
+       Get the number of chains.
+       @return The number of chains.
+    */
+    int getChainCount() {
+        return chainFrom.length;
+    }
+
+    /**
+       Get the number of areas inside a chain.
+       @param chain The chain.
+       @return The number of areas inside the chain, not counting the core areas at either end.
+    */
+    int sizeOf(int chain) {
+        return chainStart[chain + 1] - chainStart[chain];
+    }
+
+    /**
+       Get an area inside a chain.
+       @param chain The chain.
+       @param position The position inside the chain.
+       @return The node index.
+    */
+    int nodeAt(int chain, int position) {
+        return inner[chainStart[chain] + position];
+    }
+
+    /**
+       Get the core area at the start of a chain.
+       @param chain The chain.
+       @return The node index.
+    */
+    int chainFrom(int chain) {
+        return chainFrom[chain];
+    }
+
+    /**
+       Get the core area at the end of a chain.
+       @param chain The chain.
+       @return The node index.
+    */
+    int chainTo(int chain) {
+        return chainTo[chain];
+    }
+
+    /**
+       Get the summed centroid length of a chain, from the core area at one end to the core area at the other.
+       @param chain The chain.
+       @return The length.
+    */
+    double lengthOf(int chain) {
+        return chainLength[chain];
+    }
+
+    /**
+       Get the number of overlay arcs.
+       @return The number of arcs.
+    */
+    int getArcCount() {
+        return arcTargets.length;
+    }
+
+    /**
+       Get the start of a core node's arc range.
+       @param node The node index.
+       @return The first arc. Nodes inside chains have no arcs.
+    */
+    int firstArc(int node) {
+        return arcOffsets[node];
+    }
+
+    /**
+       Get the end (exclusive) of a core node's arc range.
+       @param node The node index.
+       @return One past the last arc.
+    */
+    int lastArc(int node) {
+        return arcOffsets[node + 1];
+    }
+
+    /**
+       Get the core node an arc leaves.
+       @param arc The arc.
+       @return The node index.
+    */
+    int sourceOf(int arc) {
+        return arcSources[arc];
+    }
+
+    /**
+       Get the core node an arc leads to.
+       @param arc The arc.
+       @return The node index.
+    */
+    int targetOf(int arc) {
+        return arcTargets[arc];
+    }
+
+    /**
+       Get the chain an arc runs along.
+       @param arc The arc.
+       @return The chain, or -1 if the arc is a plain edge between two core nodes.
+    */
+    int chainOfArc(int arc) {
+        return arcChains[arc];
+    }
+
+    /**
+       Find out if an arc walks its chain backwards, from {@link #chainTo(int)} to {@link #chainFrom(int)}.
+       @param arc The arc.
+       @return True if the arc runs backwards.
+    */
+    boolean isReversed(int arc) {
+        return arcReversed[arc];
+    }
+}
@@ -3,7 +3,6 @@ package sample;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 
@@ -23,7 +22,30 @@ import rescuecore2.standard.entities.Refuge;
    A sample ambulance team agent.
  */
 public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
+    // Only the injured humans in this many of the nearest areas are considered each timestep
+    private static final int NEAREST_VICTIM_AREAS = 16;
+    // Only this many of the injured humans in those areas are tried
+    private static final int NEAREST_VICTIMS = 16;
+
     private Collection<EntityID> unexploredBuildings;
+    private IncrementalPlanner explorePlanner;
+    private TargetMask victims;
+    private int[] nearestVictims;
+    private GoalSet victimAreas;
+
+    /**
+       Construct a SampleAmbulanceTeam that builds its own map topology.
+    */
+    public SampleAmbulanceTeam() {
+    }
+
+    /**
+       Construct a SampleAmbulanceTeam that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public SampleAmbulanceTeam(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
 
     @Override
     public String toString() {
@@ -35,6 +57,10 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
         super.postConnect();
         model.indexClass(StandardEntityURN.CIVILIAN, StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.POLICE_FORCE, StandardEntityURN.AMBULANCE_TEAM, StandardEntityURN.REFUGE,StandardEntityURN.HYDRANT,StandardEntityURN.GAS_STATION, StandardEntityURN.BUILDING);
         unexploredBuildings = new HashSet<EntityID>(buildingIDs);
+        explorePlanner = search.createPlanner();
+        victims = createTargetMask();
+        nearestVictims = new int[NEAREST_VICTIM_AREAS];
+        victimAreas = new GoalSet(search.getAreaGraph());
     }
 
     @Override
@@ -46,6 +72,7 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
         updateUnexploredBuildings(changed);
         // Am I transporting a civilian to a refuge?
         if (someoneOnBoard()) {
@@ -58,7 +85,7 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
             }
             else {
                 // Move to a refuge
-                List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+                List<EntityID> path = refugeField.pathFrom(me().getPosition());
                 if (path != null) {
                     Logger.info("Moving to refuge");
                     sendMove(time, path);
@@ -87,7 +114,7 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
             }
             else {
                 // Try to move to the target
-                List<EntityID> path = search.breadthFirstSearch(me().getPosition(), next.getPosition());
+                List<EntityID> path = planPath(me().getPosition(), next.getPosition());
                 if (path != null) {
                     Logger.info("Moving to target");
                     sendMove(time, path);
@@ -96,7 +123,7 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
             }
         }
         // Nothing to do
-        List<EntityID> path = search.breadthFirstSearch(me().getPosition(), unexploredBuildings);
+        List<EntityID> path = planPath(explorePlanner, me().getPosition(), unexploredBuildings);
         if (path != null) {
             Logger.info("Searching buildings");
             sendMove(time, path);
@@ -122,7 +149,9 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
     }
 
     private List<Human> getTargets() {
-        List<Human> targets = new ArrayList<Human>();
+        AreaGraph graph = search.getAreaGraph();
+        List<Human> injured = new ArrayList<Human>();
+        victims.clear();
         for (StandardEntity next : model.getEntitiesOfType(StandardEntityURN.CIVILIAN, StandardEntityURN.FIRE_BRIGADE, StandardEntityURN.POLICE_FORCE, StandardEntityURN.AMBULANCE_TEAM)) {
             Human h = (Human)next;
             if (h == me()) {
@@ -134,10 +163,30 @@ public class SampleAmbulanceTeam extends AbstractSampleAgent<AmbulanceTeam> {
                 && h.isPositionDefined()
                 && h.getHP() > 0
                 && (h.getBuriedness() > 0 || h.getDamage() > 0)) {
+                injured.add(h);
+                victims.set(graph.indexOf(h.getPosition()), true);
+            }
+        }
+        // Victims where we are first so a rescue or load is finished, then the nearest of those in the areas nearest ours
+        EntityID here = me().getPosition();
+        int node = graph.indexOf(here);
+        victims.set(node, false);
+        int count = node < 0 ? victims.nearest(me().getX(), me().getY(), NEAREST_VICTIM_AREAS, nearestVictims) : victims.nearest(graph.getX(node), graph.getY(node), NEAREST_VICTIM_AREAS, nearestVictims);
+        victimAreas.clear();
+        for (int i = 0; i < count; ++i) {
+            victimAreas.add(nearestVictims[i]);
+        }
+        List<Human> targets = new ArrayList<Human>();
+        List<Human> nearby = new ArrayList<Human>();
+        for (Human h : injured) {
+            if (h.getPosition().equals(here)) {
                 targets.add(h);
             }
+            else if (victimAreas.contains(h.getPosition())) {
+                nearby.add(h);
+            }
         }
-        Collections.sort(targets, new DistanceSorter(location(), model));
+        targets.addAll(DistanceSorter.nearest(nearby, NEAREST_VICTIMS, location(), model));
         return targets;
     }
 
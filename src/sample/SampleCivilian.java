@@ -118,7 +118,7 @@ public class SampleCivilian extends AbstractSampleAgent<Civilian> {
         
         if (damage == 0 && buriedness == 0) {
             // Run for the refuge
-            List<EntityID> path = search.breadthFirstSearchForCivilian(me().getPosition(), refugeIDs);
+            List<EntityID> path = search.breadthFirstSearchForCivilian(me().getPosition(), refugeGoals);
             if (path != null) {
                 Logger.info("Heading for a refuge");
                 sendMove(time, path);
@@ -1,11 +1,8 @@
 package sample;
 
-import static rescuecore2.misc.Handy.objectsToIDs;
-
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumSet;
 
 import rescuecore2.worldmodel.EntityID;
@@ -26,10 +23,30 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
     private static final String MAX_WATER_KEY = "fire.tank.maximum";
     private static final String MAX_DISTANCE_KEY = "fire.extinguish.max-distance";
     private static final String MAX_POWER_KEY = "fire.extinguish.max-sum";
+    // Only this many of the nearest fires are considered each timestep
+    private static final int NEAREST_FIRES = 16;
 
     private int maxWater;
     private int maxDistance;
     private int maxPower;
+    private ReachTable reach;
+    private GoalSet fireGoals;
+    private TargetMask fires;
+    private int[] nearestFires;
+
+    /**
+       Construct a SampleFireBrigade that builds its own map topology.
+    */
+    public SampleFireBrigade() {
+    }
+
+    /**
+       Construct a SampleFireBrigade that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public SampleFireBrigade(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
 
     @Override
     public String toString() {
@@ -43,6 +60,13 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
         maxWater = config.getIntValue(MAX_WATER_KEY);
         maxDistance = config.getIntValue(MAX_DISTANCE_KEY);
         maxPower = config.getIntValue(MAX_POWER_KEY);
+        reach = getReachTable(maxDistance);
+        fireGoals = new GoalSet(search.getAreaGraph());
+        fires = createTargetMask();
+        nearestFires = new int[NEAREST_FIRES];
+        for (EntityID next : buildingIDs) {
+            fires.set(search.getAreaGraph().indexOf(next), ((Building)model.getEntity(next)).isOnFire());
+        }
         Logger.info("Sample fire brigade connected: max extinguish distance = " + maxDistance + ", max power = " + maxPower + ", max tank = " + maxWater);
     }
 
@@ -55,6 +79,8 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
+        updateFires(changed);
         FireBrigade me = me();
         // Are we currently filling with water?
         if (me.isWaterDefined() && me.getWater() < maxWater && location() instanceof Refuge) {
@@ -65,7 +91,7 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
         // Are we out of water?
         if (me.isWaterDefined() && me.getWater() == 0) {
             // Head for a refuge
-            List<EntityID> path = search.breadthFirstSearch(me().getPosition(), refugeIDs);
+            List<EntityID> path = refugeField.pathFrom(me().getPosition());
             if (path != null) {
                 Logger.info("Moving to refuge");
                 sendMove(time, path);
@@ -79,7 +105,7 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
                 return;
             }
         }
-        // Find all buildings that are on fire
+        // Find the nearest buildings that are on fire
         Collection<EntityID> all = getBurningBuildings();
         // Can we extinguish any right now?
         for (EntityID next : all) {
@@ -111,28 +137,30 @@ public class SampleFireBrigade extends AbstractSampleAgent<FireBrigade> {
         return EnumSet.of(StandardEntityURN.FIRE_BRIGADE);
     }
 
-    private Collection<EntityID> getBurningBuildings() {
-        Collection<StandardEntity> e = model.getEntitiesOfType(StandardEntityURN.BUILDING);
-        List<Building> result = new ArrayList<Building>();
-        for (StandardEntity next : e) {
-            if (next instanceof Building) {
-                Building b = (Building)next;
-                if (b.isOnFire()) {
-                    result.add(b);
-                }
+    private void updateFires(ChangeSet changed) {
+        for (EntityID next : changed.getChangedEntities()) {
+            StandardEntity e = model.getEntity(next);
+            if (e instanceof Building) {
+                fires.set(search.getAreaGraph().indexOf(next), ((Building)e).isOnFire());
             }
         }
-        // Sort by distance
-        Collections.sort(result, new DistanceSorter(location(), model));
-        return objectsToIDs(result);
+    }
+
+    private Collection<EntityID> getBurningBuildings() {
+        // Nearest first
+        int count = fires.nearest(me().getX(), me().getY(), NEAREST_FIRES, nearestFires);
+        List<EntityID> result = new ArrayList<EntityID>(count);
+        for (int i = 0; i < count; ++i) {
+            result.add(search.getAreaGraph().idOf(nearestFires[i]));
+        }
+        return result;
     }
 
     private List<EntityID> planPathToFire(EntityID target) {
-        // Try to get to anything within maxDistance of the target
-        Collection<StandardEntity> targets = model.getObjectsInRange(target, maxDistance);
-        if (targets.isEmpty()) {
+        // Try to get to any area within maxDistance of the target
+        if (reach.fillAreas(search.getAreaGraph().indexOf(target), fireGoals) == 0) {
             return null;
         }
-        return search.breadthFirstSearch(me().getPosition(), objectsToIDs(targets));
+        return planPath(me().getPosition(), fireGoals);
     }
 }
@@ -1,7 +1,6 @@
 package sample;
 
 import java.util.List;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
 
@@ -9,10 +8,6 @@ import rescuecore2.worldmodel.EntityID;
 import rescuecore2.worldmodel.ChangeSet;
 import rescuecore2.messages.Command;
 import rescuecore2.log.Logger;
-import rescuecore2.misc.geometry.GeometryTools2D;
-import rescuecore2.misc.geometry.Point2D;
-import rescuecore2.misc.geometry.Line2D;
-import rescuecore2.misc.geometry.Vector2D;
 
 import rescuecore2.standard.entities.StandardEntity;
 import rescuecore2.standard.entities.StandardEntityURN;
@@ -28,6 +23,24 @@ public class SamplePoliceForce extends AbstractSampleAgent<PoliceForce> {
     private static final String DISTANCE_KEY = "clear.repair.distance";
 
     private int distance;
+    private IncrementalPlanner blockedRoadPlanner;
+    private TargetMask blockedRoads;
+    private BlockadeGeometry blockadeGeometry;
+    private double[] closest;
+
+    /**
+       Construct a SamplePoliceForce that builds its own map topology.
+    */
+    public SamplePoliceForce() {
+    }
+
+    /**
+       Construct a SamplePoliceForce that shares its map topology with the other agents in this JVM.
+       @param sharedTopology The shared map topology.
+    */
+    public SamplePoliceForce(SharedMapTopology sharedTopology) {
+        super(sharedTopology);
+    }
 
     @Override
     public String toString() {
@@ -37,8 +50,17 @@ public class SamplePoliceForce extends AbstractSampleAgent<PoliceForce> {
     @Override
     protected void postConnect() {
         super.postConnect();
+        // Police clear the blockades in their way, so they plan through them
+        usePassages = false;
+        blockedRoadPlanner = search.createPlanner();
         model.indexClass(StandardEntityURN.ROAD);
         distance = config.getIntValue(DISTANCE_KEY);
+        blockadeGeometry = new BlockadeGeometry();
+        closest = new double[2];
+        blockedRoads = createTargetMask();
+        for (EntityID next : roadIDs) {
+            blockedRoads.set(search.getAreaGraph().indexOf(next), isBlocked((Road)model.getEntity(next)));
+        }
     }
 
     @Override
@@ -50,37 +72,41 @@ public class SamplePoliceForce extends AbstractSampleAgent<PoliceForce> {
         for (Command next : heard) {
             Logger.debug("Heard " + next);
         }
+        updateSearch(changed);
+        updateBlockedRoads(changed);
+        blockadeGeometry.update(changed);
         // Am I near a blockade?
         Blockade target = getTargetBlockade();
         if (target != null) {
             Logger.info("Clearing blockade " + target);
             sendSpeak(time, 1, ("Clearing " + target).getBytes());
 //            sendClear(time, target.getX(), target.getY());
-            List<Line2D> lines = GeometryTools2D.pointsToLines(GeometryTools2D.vertexArrayToPoints(target.getApexes()), true);
-            double best = Double.MAX_VALUE;
-            Point2D bestPoint = null;
-            Point2D origin = new Point2D(me().getX(), me().getY());
-            for (Line2D next : lines) {
-                Point2D closest = GeometryTools2D.getClosestPointOnSegment(next, origin);
-                double d = GeometryTools2D.getDistance(origin, closest);
-                if (d < best) {
-                    best = d;
-                    bestPoint = closest;
-                }
+            int x = me().getX();
+            int y = me().getY();
+            if (!blockadeGeometry.closestPoint(target, x, y, closest)) {
+                sendClear(time, target.getX(), target.getY());
+                return;
             }
-            Vector2D v = bestPoint.minus(new Point2D(me().getX(), me().getY()));
-            v = v.normalised().scale(1000000);
-            sendClear(time, (int)(me().getX() + v.getX()), (int)(me().getY() + v.getY()));
+            // Clear as far as possible towards the nearest point of the blockade
+            double dx = closest[0] - x;
+            double dy = closest[1] - y;
+            double scale = 1000000 / Math.hypot(dx, dy);
+            sendClear(time, (int)(x + dx * scale), (int)(y + dy * scale));
             return;
         }
         // Plan a path to a blocked area
-        List<EntityID> path = search.breadthFirstSearch(me().getPosition(), getBlockedRoads());
+        SearchPath path = planPath(blockedRoadPlanner, me().getPosition(), blockedRoads.getGoals());
         if (path != null) {
             Logger.info("Moving to target");
-            Road r = (Road)model.getEntity(path.get(path.size() - 1));
-            Blockade b = getTargetBlockade(r, -1);
-            sendMove(time, path, b.getX(), b.getY());
+            // A partial path stops wherever planning ran out of time, so only aim at a blockade if the path reaches a blocked road
+            StandardEntity last = path.isPartial() ? null : model.getEntity(path.last());
+            Blockade b = last instanceof Road ? getTargetBlockade((Road)last, -1) : null;
             Logger.debug("Path: " + path);
+            if (b == null) {
+                sendMove(time, path);
+                return;
+            }
+            sendMove(time, path, b.getX(), b.getY());
             Logger.debug("Target coordinates: " + b.getX() + ", " + b.getY());
             return;
         }
@@ -94,16 +120,17 @@ public class SamplePoliceForce extends AbstractSampleAgent<PoliceForce> {
         return EnumSet.of(StandardEntityURN.POLICE_FORCE);
     }
 
-    private List<EntityID> getBlockedRoads() {
-        Collection<StandardEntity> e = model.getEntitiesOfType(StandardEntityURN.ROAD);
-        List<EntityID> result = new ArrayList<EntityID>();
-        for (StandardEntity next : e) {
-            Road r = (Road)next;
-            if (r.isBlockadesDefined() && !r.getBlockades().isEmpty()) {
-                result.add(r.getID());
+    private void updateBlockedRoads(ChangeSet changed) {
+        for (EntityID next : changed.getChangedEntities()) {
+            StandardEntity e = model.getEntity(next);
+            if (e instanceof Road) {
+                blockedRoads.set(search.getAreaGraph().indexOf(next), isBlocked((Road)e));
             }
         }
-        return result;
+    }
+
+    private boolean isBlocked(Road r) {
+        return r.isBlockadesDefined() && !r.getBlockades().isEmpty();
     }
 
     private Blockade getTargetBlockade() {
@@ -149,21 +176,7 @@ public class SamplePoliceForce extends AbstractSampleAgent<PoliceForce> {
     }
 
     private int findDistanceTo(Blockade b, int x, int y) {
-        //        Logger.debug("Finding distance to " + b + " from " + x + ", " + y);
-        List<Line2D> lines = GeometryTools2D.pointsToLines(GeometryTools2D.vertexArrayToPoints(b.getApexes()), true);
-        double best = Double.MAX_VALUE;
-        Point2D origin = new Point2D(x, y);
-        for (Line2D next : lines) {
-            Point2D closest = GeometryTools2D.getClosestPointOnSegment(next, origin);
-            double d = GeometryTools2D.getDistance(origin, closest);
-            //            Logger.debug("Next line: " + next + ", closest point: " + closest + ", distance: " + d);
-            if (d < best) {
-                best = d;
-                //                Logger.debug("New best distance");
-            }
-
-        }
-        return (int)best;
+        return (int)blockadeGeometry.distance(b, x, y);
     }
 
     /**
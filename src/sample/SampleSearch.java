@@ -1,30 +1,61 @@
 package sample;
 
 import rescuecore2.worldmodel.EntityID;
-import rescuecore2.worldmodel.Entity;
-import rescuecore2.misc.collections.LazyMap;
 
 import java.util.List;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Set;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.HashMap;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-import rescuecore2.standard.entities.Building;
-import rescuecore2.standard.entities.Road;
-import rescuecore2.standard.entities.StandardEntity;
 import rescuecore2.standard.entities.StandardWorldModel;
-import rescuecore2.standard.entities.Area;
 
 /**
- * A sample search class that uses a connection graph to look up neighbours.
+ * A sample search class that uses a compiled connection graph to look up neighbours.
+ * <p>
+ * Breadth first searches always return a path with as few areas as a plain breadth first search would. Single goal searches run from both ends but return the very same path; only the contraction hierarchy and road chain overlay may pick a different one of several equally short paths.
  */
 public final class SampleSearch {
-	private Map<EntityID, Set<EntityID>> graph;
-	private Set<EntityID> buildingSet;
+	/**
+	 * The number of paths cached by default.
+	 */
+	public static final int DEFAULT_PATH_CACHE_SIZE = 256;
+
+	private static final int BREADTH_FIRST = 0;
+	private static final int CIVILIAN = 1;
+	private static final int A_STAR = 2;
+	private static final int MAX_HIERARCHY_GOALS = 64;
+	private static final int DEADLINE_CHECK_MASK = 0xFF;
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+	private AreaGraph graph;
+	private MapTopology topology;
+	private SearchWorkspace workspace;
+	private int[] pathBuffer;
+	private GoalSet pooledGoals;
+	private int expanded;
+	private boolean[] blocked;
+	private List<DistanceField> fields;
+	private PathCache pathCache;
+	private int[][] knownBlockades;
+	private ConnectivityIndex connectivity;
+	private LandmarkTable landmarks;
+	private int[] landmarkNearest;
+	private int[] landmarkFarthest;
+	private HierarchyRouter router;
+	private ChainRouter chainRouter;
+	private CivilianGraph civilianGraph;
+	private CivilianField civilianField;
+	private List<GoalSweep.Scratch> sweepScratch;
+	private long deadline = NO_DEADLINE;
+	private boolean partial;
+
 	/**
 	 * Construct a new SampleSearch.
 	 * 
@@ -32,22 +63,18 @@ public final class SampleSearch {
 	 *            The world model to construct the neighbourhood graph from.
 	 */
 	public SampleSearch(StandardWorldModel world) {
-		Map<EntityID, Set<EntityID>> neighbours = new LazyMap<EntityID, Set<EntityID>>() {
-			@Override
-			public Set<EntityID> createValue() {
-				return new HashSet<EntityID>();
-			}
-		};
-		buildingSet=new HashSet<EntityID>();
-		for (Entity next : world) {
-			if (next instanceof Area) {
-				Collection<EntityID> areaNeighbours = ((Area) next).getNeighbours();
-				neighbours.get(next.getID()).addAll(areaNeighbours);
-				if(next instanceof Building)
-					buildingSet.add(next.getID());
-			}
-		}
-		setGraph(neighbours);
+		setAreaGraph(AreaGraph.fromWorld(world));
+	}
+
+	/**
+	 * Construct a new SampleSearch over a shared map topology. The graph and precomputed distance fields are shared; only the search state belongs to this object.
+	 * 
+	 * @param topology
+	 *            The map topology.
+	 */
+	public SampleSearch(MapTopology topology) {
+		this.topology = topology;
+		setAreaGraph(topology.getGraph());
 	}
 
 	/**
@@ -67,18 +94,248 @@ public final class SampleSearch {
 	 *            The new neighbourhood graph.
 	 */
 	public void setGraph(Map<EntityID, Set<EntityID>> newGraph) {
+		this.topology = null;
+		setAreaGraph(AreaGraph.fromMap(newGraph));
+	}
+
+	private void setAreaGraph(AreaGraph newGraph) {
 		this.graph = newGraph;
+		this.workspace = new SearchWorkspace(newGraph.size());
+		this.pathBuffer = new int[Math.max(newGraph.size(), 1)];
+		this.pooledGoals = new GoalSet(newGraph);
+		this.blocked = new boolean[newGraph.size()];
+		this.fields = new ArrayList<DistanceField>();
+		this.pathCache = new PathCache(newGraph.size(), pathCache == null ? DEFAULT_PATH_CACHE_SIZE : pathCache.getCapacity());
+		this.knownBlockades = new int[newGraph.size()][];
+		this.connectivity = new ConnectivityIndex(newGraph, blocked);
+		this.landmarks = null;
+		this.router = null;
+		this.chainRouter = null;
+		this.civilianGraph = null;
+		this.civilianField = null;
+		this.sweepScratch = new ArrayList<GoalSweep.Scratch>();
+	}
+
+	/**
+	 * Set the number of paths to cache. Searches from the same start to the same frozen goal set, or to the same single goal, are answered from the cache until an area on the path becomes impassable or gets new blockades. Changing the size empties the cache.
+	 * 
+	 * @param size
+	 *            The maximum number of cached paths, or zero to disable caching.
+	 */
+	public void setPathCacheSize(int size) {
+		pathCache = new PathCache(graph.size(), size);
+	}
+
+	/**
+	 * Use a landmark table to tighten the A* heuristic. Each A* search takes the larger of the straight line bound and the landmark bound.
+	 * 
+	 * @param table
+	 *            The landmark table, or null to use straight line distances only.
+	 */
+	public void setLandmarks(LandmarkTable table) {
+		if (table != null) {
+			if (table.getGraphSize() != graph.size()) {
+				throw new IllegalArgumentException("Landmark table was built for a different graph");
+			}
+			landmarkNearest = new int[table.getLandmarkCount()];
+			landmarkFarthest = new int[table.getLandmarkCount()];
+		}
+		landmarks = table;
+	}
+
+	/**
+	 * Answer breadth first searches with up to 64 goals from a contraction hierarchy instead of searching the graph. The hierarchy is only re-weighted, never rebuilt, when areas change passability. Paths have the same length as those of a breadth first search.
+	 * 
+	 * @param hierarchy
+	 *            The hierarchy, or null to go back to searching the graph.
+	 */
+	public void setHierarchy(ContractionHierarchy hierarchy) {
+		if (hierarchy != null && hierarchy.getGraph() != graph) {
+			throw new IllegalArgumentException("Contraction hierarchy was built for a different graph");
+		}
+		router = hierarchy == null ? null : new HierarchyRouter(hierarchy, blocked);
+	}
+
+	/**
+	 * Answer breadth first searches on an overlay of the graph in which every chain of roads with exactly two neighbours is condensed into a single edge, so long roads are crossed in one step instead of area by area. Chains with an impassable area inside are only followed up to that area. Paths have the same length as those of a breadth first search. A contraction hierarchy, if one is set, takes precedence.
+	 * 
+	 * @param condense
+	 *            True to search the condensed overlay, false to go back to searching the graph.
+	 */
+	public void setChainCondensation(boolean condense) {
+		chainRouter = condense ? new ChainRouter(graph.roadChains(), graph.size(), blocked) : null;
+	}
+
+	/**
+	 * Get the number of searches answered from the path cache.
+	 * 
+	 * @return The number of cache hits.
+	 */
+	public int getCacheHits() {
+		return pathCache.getHits();
+	}
+
+	/**
+	 * Get the number of cacheable searches that had to be run.
+	 * 
+	 * @return The number of cache misses.
+	 */
+	public int getCacheMisses() {
+		return pathCache.getMisses();
 	}
 
 	/**
-	 * Get the neighbourhood graph.
+	 * Get a read-only view of the neighbourhood graph.
 	 * 
 	 * @return The neighbourhood graph.
 	 */
 	public Map<EntityID, Set<EntityID>> getGraph() {
+		return graph.asMap();
+	}
+
+	/**
+	 * Get the compiled neighbourhood graph.
+	 * 
+	 * @return The compiled graph.
+	 */
+	public AreaGraph getAreaGraph() {
 		return graph;
 	}
 
+	/**
+	 * Build a frozen goal set that can be reused for any number of searches.
+	 * 
+	 * @param goals
+	 *            The goals.
+	 * @return A new goal set.
+	 */
+	public GoalSet createGoalSet(Collection<EntityID> goals) {
+		return GoalSet.of(graph, goals);
+	}
+
+	/**
+	 * Build a distance field to a goal set. The field is kept up to date as areas change passability. If the map topology already has a field for this goal set it is shared until the first repair.
+	 * 
+	 * @param goals
+	 *            The goals.
+	 * @return A new distance field.
+	 */
+	public DistanceField createDistanceField(GoalSet goals) {
+		checkGoals(goals);
+		DistanceField template = topology == null ? null : topology.getDistanceField(goals);
+		DistanceField result = template != null && !anyBlocked() ? template.share() : new DistanceField(graph, goals, blocked);
+		fields.add(result);
+		return result;
+	}
+
+	/**
+	 * Create a planner that keeps its state between calls and is repaired incrementally as areas change passability and as its goals change. A planner only pays off for goals that change little from one timestep to the next; goals that are replaced wholesale on each call rebuild its whole field every time.
+	 * 
+	 * @return A new incremental planner.
+	 */
+	public IncrementalPlanner createPlanner() {
+		IncrementalPlanner result = new IncrementalPlanner(graph, blocked);
+		fields.add(result.getField());
+		return result;
+	}
+
+	/**
+	 * Mark an area as passable or impassable. Searches never pass through an impassable area, although they may start in one and may finish in one if it is a goal. Distance fields are repaired incrementally.
+	 * 
+	 * @param area
+	 *            The area to update.
+	 * @param passable
+	 *            Whether the area can be passed through.
+	 * @return True if the passability of the area changed.
+	 */
+	public boolean setPassable(EntityID area, boolean passable) {
+		int node = graph.indexOf(area);
+		if (node < 0 || blocked[node] != passable) {
+			return false;
+		}
+		blocked[node] = !passable;
+		connectivity.invalidate(node);
+		civilianField = null;
+		if (router != null) {
+			router.invalidate();
+		}
+		if (chainRouter != null) {
+			chainRouter.invalidate(node);
+		}
+		if (passable) {
+			// Cached paths are still valid but may no longer be the shortest
+			pathCache.clear();
+		}
+		else {
+			pathCache.invalidate(node);
+		}
+		for (DistanceField next : fields) {
+			if (passable) {
+				next.nodeUnblocked(node, blocked);
+			}
+			else {
+				next.nodeBlocked(node, blocked);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tell the search which blockades an area currently has. Cached paths through the area are dropped if any blockade is new.
+	 * 
+	 * @param area
+	 *            The area to update.
+	 * @param blockades
+	 *            The blockades in the area.
+	 * @return True if the area has a blockade that was not seen before.
+	 */
+	public boolean updateBlockades(EntityID area, Collection<EntityID> blockades) {
+		int node = graph.indexOf(area);
+		if (node < 0) {
+			return false;
+		}
+		int[] previous = knownBlockades[node];
+		int[] current = new int[blockades.size()];
+		int i = 0;
+		for (EntityID next : blockades) {
+			current[i++] = next.getValue();
+		}
+		Arrays.sort(current);
+		boolean added = false;
+		for (int next : current) {
+			if (previous == null || Arrays.binarySearch(previous, next) < 0) {
+				added = true;
+				break;
+			}
+		}
+		knownBlockades[node] = current.length == 0 ? null : current;
+		if (added) {
+			pathCache.invalidate(node);
+		}
+		return added;
+	}
+
+	private boolean anyBlocked() {
+		for (boolean next : blocked) {
+			if (next) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Find out if an area can be passed through.
+	 * 
+	 * @param area
+	 *            The area to check.
+	 * @return False if the area has been marked impassable.
+	 */
+	public boolean isPassable(EntityID area) {
+		int node = graph.indexOf(area);
+		return node < 0 || !blocked[node];
+	}
+
 	/**
 	 * Do a breadth first search from one location to the closest (in terms of number of nodes) of a set of goals.
 	 * 
@@ -88,7 +345,7 @@ public final class SampleSearch {
 	 *            The set of possible goals.
 	 * @return The path from start to one of the goals, or null if no path can be found.
 	 */
-	public List<EntityID> breadthFirstSearch(EntityID start, EntityID... goals) {
+	public SearchPath breadthFirstSearch(EntityID start, EntityID... goals) {
 		return breadthFirstSearch(start, Arrays.asList(goals));
 	}
 
@@ -101,108 +358,677 @@ public final class SampleSearch {
 	 *            The set of possible goals.
 	 * @return The path from start to one of the goals, or null if no path can be found.
 	 */
-	public List<EntityID> breadthFirstSearch(EntityID start, Collection<EntityID> goals) {
-		List<EntityID> open = new LinkedList<EntityID>();
-		Map<EntityID, EntityID> ancestors = new HashMap<EntityID, EntityID>();
-		open.add(start);
-		EntityID next = null;
-		boolean found = false;
-		ancestors.put(start, start);
-		do {
-			next = open.remove(0);
-			if (isGoal(next, goals)) {
-				found = true;
-				break;
+	public SearchPath breadthFirstSearch(EntityID start, Collection<EntityID> goals) {
+		return search(start, goals, BREADTH_FIRST);
+	}
+
+	/**
+	 * Do a breadth first search from one location to the closest (in terms of number of nodes) of a set of goals.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath breadthFirstSearch(EntityID start, GoalSet goals) {
+		return search(start, goals, BREADTH_FIRST);
+	}
+
+	/**
+	 * Answer a batch of breadth first searches, spreading the work over the common fork-join pool.
+	 * 
+	 * @param requests
+	 *            The requests.
+	 * @return The path for each request, in the same order, with null where no path can be found.
+	 */
+	public List<SearchPath> breadthFirstSearch(List<PathRequest> requests) {
+		return breadthFirstSearch(requests, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Answer a batch of breadth first searches. Requests that share a goal set are answered together by one reverse search from the goals, or straight from a distance field if this search already maintains one for that goal set, so the work grows with the number of distinct goal sets rather than the number of requests. The goal sets are searched in parallel. Paths have the same length as those of {@link #breadthFirstSearch(EntityID, GoalSet)}. Passability must not be changed until this returns.
+	 * 
+	 * @param requests
+	 *            The requests.
+	 * @param pool
+	 *            The pool to search the goal sets in.
+	 * @return The path for each request, in the same order, with null where no path can be found.
+	 */
+	public List<SearchPath> breadthFirstSearch(List<PathRequest> requests, ForkJoinPool pool) {
+		List<SearchPath> results = new ArrayList<SearchPath>(Collections.<SearchPath>nCopies(requests.size(), null));
+		Map<GoalSet, GoalSweep> sweeps = new IdentityHashMap<GoalSet, GoalSweep>();
+		for (int i = 0; i < requests.size(); ++i) {
+			PathRequest request = requests.get(i);
+			GoalSet goals = request.getGoals();
+			checkGoals(goals);
+			int first = graph.indexOf(request.getStart());
+			if (first < 0) {
+				continue;
 			}
-			Collection<EntityID> neighbours = graph.get(next);
-			if (neighbours.isEmpty()) {
+			DistanceField field = findField(goals);
+			if (field != null) {
+				results.set(i, field.pathFrom(request.getStart()));
 				continue;
 			}
-			for (EntityID neighbour : neighbours) {
-				if (isGoal(neighbour, goals)) {
-					ancestors.put(neighbour, next);
-					next = neighbour;
-					found = true;
-					break;
+			GoalSweep sweep = sweeps.get(goals);
+			if (sweep == null) {
+				if (sweepScratch.size() == sweeps.size()) {
+					sweepScratch.add(new GoalSweep.Scratch(graph.size()));
 				}
-				else {
-					if (!ancestors.containsKey(neighbour)) {
-						open.add(neighbour);
-						ancestors.put(neighbour, next);
-					}
+				sweep = new GoalSweep(graph, blocked, goals, results, sweepScratch.get(sweeps.size()));
+				sweeps.put(goals, sweep);
+			}
+			sweep.add(first, i);
+		}
+		final Collection<GoalSweep> tasks = sweeps.values();
+		if (tasks.size() == 1) {
+			tasks.iterator().next().invoke();
+		}
+		else if (tasks.size() > 1) {
+			pool.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
 				}
+			});
+		}
+		expanded = 0;
+		for (GoalSweep next : tasks) {
+			expanded += next.getExpandedNodes();
+		}
+		return results;
+	}
+
+	private DistanceField findField(GoalSet goals) {
+		for (DistanceField next : fields) {
+			if (next.getGoals() == goals) {
+				return next;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Do a breadth first search for a civilian. Civilians may leave a building for any neighbour but may only enter a building if it is one of the goals.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath breadthFirstSearchForCivilian(EntityID start, Collection<EntityID> goals) {
+		return search(start, goals, CIVILIAN);
+	}
+
+	/**
+	 * Do a breadth first search for a civilian. Civilians may leave a building for any neighbour but may only enter a building if it is one of the goals. The first search to a frozen goal set builds a table of next hops to its nearest goal, shared through the map topology where possible, and later searches to the same set just follow it until an area changes passability.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath breadthFirstSearchForCivilian(EntityID start, GoalSet goals) {
+		return search(start, goals, CIVILIAN);
+	}
+
+	/**
+	 * Do an A* search from one location to the closest (in terms of distance between area centroids) of a set of goals. The heuristic is the straight line distance to the goals, so the path is the shortest in metres rather than in number of areas.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath aStarSearch(EntityID start, EntityID... goals) {
+		return aStarSearch(start, Arrays.asList(goals));
+	}
+
+	/**
+	 * Do an A* search from one location to the closest (in terms of distance between area centroids) of a set of goals.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath aStarSearch(EntityID start, Collection<EntityID> goals) {
+		return search(start, goals, A_STAR);
+	}
+
+	/**
+	 * Do an A* search from one location to the closest (in terms of distance between area centroids) of a set of goals.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The path from start to one of the goals, or null if no path can be found.
+	 */
+	public SearchPath aStarSearch(EntityID start, GoalSet goals) {
+		return search(start, goals, A_STAR);
+	}
+
+	/**
+	 * Do a breadth first search that gives up at a deadline. If the search runs out of time it returns the path to the queued area that looks closest to a goal instead, marked as partial, so that the agent can still make progress this timestep. Searches answered from the cache, the contraction hierarchy, the road chain overlay or a single goal bidirectional search are not interrupted.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param deadlineMillis
+	 *            The time to give up at, as returned by {@link System#currentTimeMillis()}.
+	 * @return The path from start to one of the goals, a partial path, or null if no path can be found.
+	 */
+	public SearchPath breadthFirstSearch(EntityID start, Collection<EntityID> goals, long deadlineMillis) {
+		startClock(deadlineMillis);
+		try {
+			return search(start, goals, BREADTH_FIRST);
+		}
+		finally {
+			deadline = NO_DEADLINE;
+		}
+	}
+
+	/**
+	 * Do a breadth first search that gives up at a deadline. If the search runs out of time it returns the path to the queued area that looks closest to a goal instead, marked as partial, so that the agent can still make progress this timestep. Searches answered from the cache, the contraction hierarchy, the road chain overlay or a single goal bidirectional search are not interrupted.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param deadlineMillis
+	 *            The time to give up at, as returned by {@link System#currentTimeMillis()}.
+	 * @return The path from start to one of the goals, a partial path, or null if no path can be found.
+	 */
+	public SearchPath breadthFirstSearch(EntityID start, GoalSet goals, long deadlineMillis) {
+		startClock(deadlineMillis);
+		try {
+			return search(start, goals, BREADTH_FIRST);
+		}
+		finally {
+			deadline = NO_DEADLINE;
+		}
+	}
+
+	/**
+	 * Do an A* search that gives up at a deadline. If the search runs out of time it returns the path to the area with the smallest heuristic found so far instead, marked as partial, so that the agent can still make progress this timestep.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param deadlineMillis
+	 *            The time to give up at, as returned by {@link System#currentTimeMillis()}.
+	 * @return The path from start to one of the goals, a partial path, or null if no path can be found.
+	 */
+	public SearchPath aStarSearch(EntityID start, Collection<EntityID> goals, long deadlineMillis) {
+		startClock(deadlineMillis);
+		try {
+			return search(start, goals, A_STAR);
+		}
+		finally {
+			deadline = NO_DEADLINE;
+		}
+	}
+
+	/**
+	 * Do an A* search that gives up at a deadline. If the search runs out of time it returns the path to the area with the smallest heuristic found so far instead, marked as partial, so that the agent can still make progress this timestep.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param deadlineMillis
+	 *            The time to give up at, as returned by {@link System#currentTimeMillis()}.
+	 * @return The path from start to one of the goals, a partial path, or null if no path can be found.
+	 */
+	public SearchPath aStarSearch(EntityID start, GoalSet goals, long deadlineMillis) {
+		startClock(deadlineMillis);
+		try {
+			return search(start, goals, A_STAR);
+		}
+		finally {
+			deadline = NO_DEADLINE;
+		}
+	}
+
+	/**
+	 * Convert a wall clock deadline to the monotonic clock the search loops check.
+	 */
+	private void startClock(long deadlineMillis) {
+		long remaining = deadlineMillis - System.currentTimeMillis();
+		// Deadlines too far away to convert are as good as none
+		deadline = remaining > Integer.MAX_VALUE ? NO_DEADLINE : System.nanoTime() + remaining * 1000000L;
+	}
+
+	/**
+	 * Find out if a search has run out of time. The clock is only read every few hundred expansions.
+	 */
+	private boolean outOfTime() {
+		return (expanded & DEADLINE_CHECK_MASK) == 0 && deadline != NO_DEADLINE && System.nanoTime() > deadline;
+	}
+
+	/**
+	 * Do an A* search over node indices and write the path into a caller supplied array. This does not allocate.
+	 * 
+	 * @param start
+	 *            The node index we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param path
+	 *            The array to write the path into. It must be able to hold {@link AreaGraph#size()} nodes.
+	 * @return The length of the path, or -1 if no path can be found.
+	 */
+	public int aStarSearch(int start, GoalSet goals, int[] path) {
+		return route(start, goals, A_STAR, path);
+	}
+
+	/**
+	 * Get the number of nodes expanded by the last search.
+	 * 
+	 * @return The number of expanded nodes.
+	 */
+	public int getExpandedNodes() {
+		return expanded;
+	}
+
+	/**
+	 * Do a breadth first search over node indices and write the path into a caller supplied array. This does not allocate.
+	 * 
+	 * @param start
+	 *            The node index we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @param path
+	 *            The array to write the path into. It must be able to hold {@link AreaGraph#size()} nodes.
+	 * @return The length of the path, or -1 if no path can be found.
+	 */
+	public int breadthFirstSearch(int start, GoalSet goals, int[] path) {
+		return route(start, goals, BREADTH_FIRST, path);
+	}
+
+	/**
+	 * Do a breadth first search and return the path as node indices.
+	 * 
+	 * @param start
+	 *            The location we start at.
+	 * @param goals
+	 *            The set of possible goals.
+	 * @return The node indices of the path from start to one of the goals, or null if no path can be found.
+	 */
+	public int[] breadthFirstSearchPath(EntityID start, GoalSet goals) {
+		int first = graph.indexOf(start);
+		if (first < 0) {
+			return null;
+		}
+		int length = breadthFirstSearch(first, goals, pathBuffer);
+		return length < 0 ? null : Arrays.copyOf(pathBuffer, length);
+	}
+
+	/**
+	 * Convert a path of node indices to EntityIDs.
+	 * 
+	 * @param path
+	 *            The node indices.
+	 * @return The path as a list of EntityIDs.
+	 */
+	public SearchPath toEntityIDs(int[] path) {
+		return SearchPath.copyOf(graph, path, path.length);
+	}
+
+	private SearchPath search(EntityID start, Collection<EntityID> goals, int mode) {
+		int first = graph.indexOf(start);
+		if (first < 0) {
+			// Not part of the graph so the only reachable goal is the start itself
+			return goals.contains(start) ? SearchPath.singleton(start) : null;
+		}
+		// A single goal is as good a cache key as a frozen goal set
+		int goalKey = 0;
+		if (goals.size() == 1) {
+			goalKey = -(graph.indexOf(goals.iterator().next()) + 1);
+		}
+		return search(first, pooledGoals(goals), goalKey, mode);
+	}
+
+	private SearchPath search(EntityID start, GoalSet goals, int mode) {
+		int first = graph.indexOf(start);
+		if (first < 0) {
+			return null;
+		}
+		return search(first, goals, goals.getId(), mode);
+	}
+
+	private SearchPath search(int first, GoalSet goals, int goalKey, int mode) {
+		boolean cacheable = goalKey != 0 && pathCache.getCapacity() > 0;
+		long key = 0;
+		if (cacheable) {
+			checkGoals(goals);
+			key = PathCache.key(first, goalKey, mode);
+			int[] cached = pathCache.get(key);
+			if (cached != null) {
+				expanded = 0;
+				// Cached paths are never changed, so they can be handed out as they are
+				return cached.length == 0 ? null : new SearchPath(graph.idArray(), cached, 0, cached.length);
 			}
-		} while (!found && !open.isEmpty());
-		if (!found) {
+		}
+		int length = route(first, goals, mode, pathBuffer);
+		if (cacheable && !partial) {
+			pathCache.put(key, pathBuffer, length);
+		}
+		if (length < 0) {
 			// No path
 			return null;
 		}
-		// Walk back from goal to start
-		EntityID current = next;
-		List<EntityID> path = new LinkedList<EntityID>();
-		do {
-			path.add(0, current);
-			current = ancestors.get(current);
-			if (current == null) {
-				throw new RuntimeException("Found a node with no ancestor! Something is broken.");
-			}
-		} while (current != start);
-		return path;
-	}
-
-	public List<EntityID> breadthFirstSearchForCivilian(EntityID start, Collection<EntityID> goals) {
-
-		List<EntityID> open = new LinkedList<EntityID>();
-		Map<EntityID, EntityID> ancestors = new HashMap<EntityID, EntityID>();
-		open.add(start);
-		EntityID next = null;
-		boolean found = false;
-		ancestors.put(start, start);
-		do {
-			next = open.remove(0);
-			if (isGoal(next, goals)) {
-				found = true;
-				break;
+		return SearchPath.copyOf(graph, pathBuffer, length, partial);
+	}
+
+	/**
+	 * Run a search of the given mode, rejecting it straight away if the connectivity index shows that no goal can be reached.
+	 */
+	private int route(int first, GoalSet goals, int mode, int[] path) {
+		checkGoals(goals);
+		partial = false;
+		if (mode == CIVILIAN && goals.getId() != 0) {
+			expanded = 0;
+			return civilianField(goals).pathFrom(first, path);
+		}
+		if (!connectivity.canReach(first, goals, mode == CIVILIAN)) {
+			expanded = 0;
+			return -1;
+		}
+		if (mode == BREADTH_FIRST && router != null && goals.size() <= MAX_HIERARCHY_GOALS) {
+			int length = router.route(first, goals, path);
+			expanded = router.getTouchedNodes();
+			return length;
+		}
+		if (mode == BREADTH_FIRST && chainRouter != null) {
+			int length = chainRouter.route(first, goals, path);
+			expanded = chainRouter.getTouchedNodes();
+			return length;
+		}
+		if (mode == BREADTH_FIRST && goals.size() == 1) {
+			return bidirectional(first, goals.get(0), path);
+		}
+		int goal;
+		if (mode == A_STAR) {
+			goal = aStar(first, goals);
+		}
+		else if (mode == CIVILIAN) {
+			goal = civilianSearch(first, goals);
+		}
+		else {
+			goal = search(first, goals);
+		}
+		return goal < 0 ? -1 : workspace.writePath(goal, path);
+	}
+
+	/**
+	 * Get the civilian field for a frozen goal set. Only the field for the last goal set used is kept.
+	 */
+	private CivilianField civilianField(GoalSet goals) {
+		if (civilianField == null || civilianField.getGoals() != goals) {
+			CivilianField shared = topology == null || anyBlocked() ? null : topology.getCivilianField(goals);
+			civilianField = shared != null ? shared : new CivilianField(civilianGraph(), graph.size(), goals, blocked);
+		}
+		return civilianField;
+	}
+
+	private CivilianGraph civilianGraph() {
+		if (civilianGraph == null) {
+			civilianGraph = graph.civilianGraph();
+		}
+		return civilianGraph;
+	}
+
+	private int search(int first, GoalSet goals) {
+		int[] neighbours = graph.neighbourArray();
+		workspace.begin();
+		workspace.visit(first, first);
+		workspace.push(first);
+		expanded = 0;
+		while (!workspace.isEmpty()) {
+			if (outOfTime()) {
+				return closestQueued(goals);
 			}
-			Collection<EntityID> neighbours = graph.get(next);
-			if (neighbours.isEmpty()) {
-				continue;
+			int next = workspace.pop();
+			++expanded;
+			if (goals.contains(next)) {
+				return next;
+			}
+			for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+				int neighbour = neighbours[i];
+				if (goals.contains(neighbour)) {
+					workspace.visit(neighbour, next);
+					return neighbour;
+				}
+				if (!workspace.isVisited(neighbour) && !blocked[neighbour]) {
+					workspace.visit(neighbour, next);
+					workspace.push(neighbour);
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Breadth first search over the compiled civilian graph. Free edges are followed as usual; entry edges are only followed into a goal.
+	 */
+	private int civilianSearch(int first, GoalSet goals) {
+		CivilianGraph civilian = civilianGraph();
+		int[] targets = civilian.targetArray();
+		workspace.begin();
+		workspace.visit(first, first);
+		workspace.push(first);
+		expanded = 0;
+		while (!workspace.isEmpty()) {
+			if (outOfTime()) {
+				return closestQueued(goals);
+			}
+			int next = workspace.pop();
+			++expanded;
+			if (goals.contains(next)) {
+				return next;
 			}
-			for (EntityID neighbour : neighbours) {
-				if (isGoal(neighbour, goals)) {
-					ancestors.put(neighbour, next);
-					next = neighbour;
-					found = true;
-					break;
+			int entry = civilian.firstEntry(next);
+			for (int i = civilian.firstEdge(next); i < entry; ++i) {
+				int neighbour = targets[i];
+				if (goals.contains(neighbour)) {
+					workspace.visit(neighbour, next);
+					return neighbour;
 				}
-				else {
-					if (!ancestors.containsKey(neighbour)) {
-						if (buildingSet.contains(next) || !buildingSet.contains(neighbour)) {
-							open.add(neighbour);
-							ancestors.put(neighbour, next);
+				if (!workspace.isVisited(neighbour) && !blocked[neighbour]) {
+					workspace.visit(neighbour, next);
+					workspace.push(neighbour);
+				}
+			}
+			for (int i = entry; i < civilian.lastEdge(next); ++i) {
+				if (goals.contains(targets[i])) {
+					workspace.visit(targets[i], next);
+					return targets[i];
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Search for a single goal from both ends at once, always expanding a whole level of whichever frontier is smaller. The backward half follows predecessor edges. When a level finds nodes that both halves have visited, the length of the shortest path is known, and the path is then rebuilt with the same ties as a one-directional breadth first search: up to the level where the halves met the forward parents already are the ones a forward search would record, and beyond it the forward search is carried on over just the areas the backward half found on a shortest path.
+	 */
+	private int bidirectional(int first, int target, int[] path) {
+		workspace.begin();
+		expanded = 0;
+		if (first == target) {
+			path[0] = first;
+			return 1;
+		}
+		int[] neighbours = graph.neighbourArray();
+		int[] predecessors = graph.predecessorArray();
+		workspace.visit(first, first);
+		workspace.setDepth(first, 0);
+		workspace.push(first);
+		workspace.visitBackward(target, 0);
+		workspace.pushBackward(target);
+		int meet = -1;
+		int best = Integer.MAX_VALUE;
+		while (meet < 0 && !workspace.isEmpty() && workspace.queuedBackward() > 0) {
+			if (workspace.queued() <= workspace.queuedBackward()) {
+				for (int level = workspace.queued(); level > 0; --level) {
+					int next = workspace.pop();
+					++expanded;
+					int depth = workspace.depthOf(next) + 1;
+					for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+						int neighbour = neighbours[i];
+						if (workspace.isVisited(neighbour) || (blocked[neighbour] && neighbour != target)) {
+							continue;
+						}
+						workspace.visit(neighbour, next);
+						workspace.setDepth(neighbour, depth);
+						// Meeting nodes are queued too, so the queue holds the whole level when the halves meet
+						workspace.push(neighbour);
+						if (workspace.isVisitedBackward(neighbour) && depth + workspace.backwardDepthOf(neighbour) < best) {
+							best = depth + workspace.backwardDepthOf(neighbour);
+							meet = neighbour;
 						}
 					}
 				}
 			}
-		} while (!found && !open.isEmpty());
-		if (!found) {
-			// No path
-			return null;
+			else {
+				for (int level = workspace.queuedBackward(); level > 0; --level) {
+					int next = workspace.popBackward();
+					++expanded;
+					int depth = workspace.backwardDepthOf(next) + 1;
+					for (int i = graph.firstPredecessor(next); i < graph.lastPredecessor(next); ++i) {
+						int previous = predecessors[i];
+						if (workspace.isVisitedBackward(previous) || (blocked[previous] && previous != first)) {
+							continue;
+						}
+						workspace.visitBackward(previous, depth);
+						if (workspace.isVisited(previous)) {
+							if (depth + workspace.depthOf(previous) < best) {
+								best = depth + workspace.depthOf(previous);
+								meet = previous;
+							}
+						}
+						else {
+							workspace.pushBackward(previous);
+						}
+					}
+				}
+			}
+		}
+		if (meet < 0) {
+			return -1;
+		}
+		// The queue holds the forward level of the meeting node in the order a forward search visits it. Every area on a shortest path that is further on is one step closer to the goal than the last, and all of its parents at the level before are on a shortest path too, so searching on through those areas alone visits them in forward order.
+		for (int depth = workspace.depthOf(meet); depth < best; ++depth) {
+			for (int level = workspace.queued(); level > 0; --level) {
+				int next = workspace.pop();
+				if (!workspace.isVisitedBackward(next) || workspace.backwardDepthOf(next) != best - depth) {
+					continue;
+				}
+				++expanded;
+				for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+					int neighbour = neighbours[i];
+					if (!workspace.isVisited(neighbour) && workspace.isVisitedBackward(neighbour) && workspace.backwardDepthOf(neighbour) == best - depth - 1) {
+						workspace.visit(neighbour, next);
+						workspace.push(neighbour);
+					}
+				}
+			}
+		}
+		return workspace.writePath(target, path);
+	}
+
+	private int aStar(int first, GoalSet goals) {
+		int[] neighbours = graph.neighbourArray();
+		double[] lengths = graph.edgeLengthArray();
+		workspace.begin();
+		IntMinHeap open = workspace.heap();
+		if (landmarks != null) {
+			landmarks.summarise(goals, landmarkNearest, landmarkFarthest);
 		}
-		// Walk back from goal to start
-		EntityID current = next;
-		List<EntityID> path = new LinkedList<EntityID>();
-		do {
-			path.add(0, current);
-			current = ancestors.get(current);
-			if (current == null) {
-				throw new RuntimeException("Found a node with no ancestor! Something is broken.");
+		workspace.visit(first, first);
+		workspace.setCost(first, 0);
+		double closest = heuristic(first, goals);
+		int best = first;
+		open.offer(first, closest);
+		expanded = 0;
+		while (!open.isEmpty()) {
+			if (outOfTime()) {
+				partial = true;
+				return best;
+			}
+			int next = open.poll();
+			++expanded;
+			if (goals.contains(next)) {
+				return next;
 			}
-		} while (current != start);
-		return path;
+			double cost = workspace.costOf(next);
+			for (int i = graph.firstNeighbour(next); i < graph.lastNeighbour(next); ++i) {
+				int neighbour = neighbours[i];
+				if (blocked[neighbour] && !goals.contains(neighbour)) {
+					continue;
+				}
+				double g = cost + lengths[i];
+				// Landmark bounds are rounded so a closed node can occasionally improve; it is simply reopened
+				if (!workspace.isVisited(neighbour) || g < workspace.costOf(neighbour)) {
+					workspace.visit(neighbour, next);
+					workspace.setCost(neighbour, g);
+					double h = heuristic(neighbour, goals);
+					if (h < closest) {
+						closest = h;
+						best = neighbour;
+					}
+					open.offer(neighbour, g + h);
+				}
+			}
+		}
+		return -1;
 	}
 
-	private boolean isGoal(EntityID e, Collection<EntityID> test) {
-		return test.contains(e);
+	/**
+	 * Give up a breadth first search and pick the queued node closest to the goals' bounding box to end a partial path at.
+	 */
+	private int closestQueued(GoalSet goals) {
+		partial = true;
+		int result = -1;
+		double closest = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < workspace.queued(); ++i) {
+			int node = workspace.queuedAt(i);
+			double h = goals.lowerBound(node);
+			if (h < closest) {
+				closest = h;
+				result = node;
+			}
+		}
+		return result;
+	}
+
+	private double heuristic(int node, GoalSet goals) {
+		double result = goals.lowerBound(node);
+		if (landmarks != null) {
+			result = Math.max(result, landmarks.lowerBound(node, landmarkNearest, landmarkFarthest));
+		}
+		return result;
+	}
+
+	private GoalSet pooledGoals(Collection<EntityID> goals) {
+		pooledGoals.clear();
+		pooledGoals.addAll(goals);
+		return pooledGoals;
+	}
+
+	private void checkGoals(GoalSet goals) {
+		if (goals.getGraph() != graph) {
+			throw new IllegalArgumentException("Goal set was built for a different graph");
+		}
 	}
 }
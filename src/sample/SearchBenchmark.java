@@ -0,0 +1,165 @@
+package sample;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   Micro benchmark for SampleSearch. This runs breadth first searches on a synthetic grid graph and reports the time and heap allocation per query for the list based and the index based entry points, the nodes expanded by single goal searches, and the time to answer a tick's worth of agents one by one and as a batch. The index based entry point must not allocate once warmed up: if it allocates a byte or more per query, the benchmark exits with a non-zero status. One-off allocations made while the JIT recompiles during a run come to well under a byte per query and are let through.
+ */
+public final class SearchBenchmark {
+    private static final int DEFAULT_WIDTH = 100;
+    private static final int DEFAULT_QUERIES = 20000;
+    private static final int GOALS = 10;
+    private static final int BATCH_AGENTS = 40;
+    private static final int BATCH_GOAL_SETS = 3;
+    // Looked up once, because looking them up allocates and would be counted against the queries
+    private static final java.lang.management.ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final long THREAD_ID = Thread.currentThread().getId();
+
+    private SearchBenchmark() {}
+
+    /**
+       Run the benchmark.
+       @param args Optional grid width and number of queries.
+    */
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_WIDTH;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        SampleSearch search = new SampleSearch(grid(width));
+        AreaGraph graph = search.getAreaGraph();
+        Random random = new Random(width);
+        int[] starts = new int[queries];
+        for (int i = 0; i < queries; ++i) {
+            starts[i] = random.nextInt(graph.size());
+        }
+        Set<EntityID> goals = new HashSet<EntityID>();
+        while (goals.size() < GOALS) {
+            goals.add(graph.idOf(random.nextInt(graph.size())));
+        }
+        GoalSet goalSet = search.createGoalSet(goals);
+        int[] path = new int[graph.size()];
+        // Warm up both entry points so the JIT has settled before measuring
+        for (int i = 0; i < queries; ++i) {
+            search.breadthFirstSearch(starts[i], goalSet, path);
+            search.breadthFirstSearch(graph.idOf(starts[i]), goals);
+        }
+        // The first readings of the clock and the allocation counter allocate, so take them before measuring
+        System.nanoTime();
+        allocatedBytes();
+        long bytes = allocatedBytes();
+        long time = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < queries; ++i) {
+            total += search.breadthFirstSearch(starts[i], goalSet, path);
+        }
+        long indexBytes = allocatedBytes() - bytes;
+        report("index", queries, System.nanoTime() - time, indexBytes);
+        bytes = allocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < queries; ++i) {
+            List<EntityID> result = search.breadthFirstSearch(graph.idOf(starts[i]), goals);
+            total += result == null ? -1 : result.size();
+        }
+        report("list", queries, System.nanoTime() - time, allocatedBytes() - bytes);
+        GoalSet single = search.createGoalSet(Collections.singleton(graph.idOf(random.nextInt(graph.size()))));
+        for (int i = 0; i < queries; ++i) {
+            search.breadthFirstSearch(starts[i], single, path);
+        }
+        long expanded = 0;
+        bytes = allocatedBytes();
+        time = System.nanoTime();
+        for (int i = 0; i < queries; ++i) {
+            total += search.breadthFirstSearch(starts[i], single, path);
+            expanded += search.getExpandedNodes();
+        }
+        long nanos = System.nanoTime() - time;
+        long singleBytes = allocatedBytes() - bytes;
+        System.out.println("single goal: " + (nanos / queries) + " ns/query, " + (expanded / queries) + " nodes expanded/query");
+        // A tick's worth of agents asking for the nearest of a few shared goal sets
+        search.setPathCacheSize(0);
+        GoalSet[] shared = new GoalSet[BATCH_GOAL_SETS];
+        for (int i = 0; i < shared.length; ++i) {
+            Set<EntityID> next = new HashSet<EntityID>();
+            while (next.size() < GOALS) {
+                next.add(graph.idOf(random.nextInt(graph.size())));
+            }
+            shared[i] = search.createGoalSet(next);
+        }
+        int ticks = Math.max(1, queries / BATCH_AGENTS);
+        long oneByOne = 0;
+        long batch = 0;
+        for (int tick = 0; tick < ticks; ++tick) {
+            List<PathRequest> requests = new ArrayList<PathRequest>(BATCH_AGENTS);
+            for (int i = 0; i < BATCH_AGENTS; ++i) {
+                requests.add(new PathRequest(graph.idOf(starts[(tick * BATCH_AGENTS + i) % queries]), shared[i % shared.length]));
+            }
+            time = System.nanoTime();
+            for (PathRequest next : requests) {
+                List<EntityID> result = search.breadthFirstSearch(next.getStart(), next.getGoals());
+                total += result == null ? -1 : result.size();
+            }
+            oneByOne += System.nanoTime() - time;
+            time = System.nanoTime();
+            for (List<EntityID> result : search.breadthFirstSearch(requests)) {
+                total += result == null ? -1 : result.size();
+            }
+            batch += System.nanoTime() - time;
+        }
+        System.out.println("batch of " + BATCH_AGENTS + " agents, " + BATCH_GOAL_SETS + " goal sets: " + (oneByOne / ticks) + " ns/tick one by one, " + (batch / ticks) + " ns/tick batched");
+        System.out.println("Checksum: " + total);
+        if (!isAllocationMeasured()) {
+            System.out.println("Allocation is not measured by this JVM, so it was not checked");
+        }
+        else if (indexBytes / queries > 0 || singleBytes / queries > 0) {
+            System.out.println("FAILED: the index based entry point allocated " + (indexBytes / queries) + " bytes/query and " + (singleBytes / queries) + " bytes/query for single goals");
+            System.exit(1);
+        }
+    }
+
+    private static void report(String name, int queries, long nanos, long bytes) {
+        System.out.println(name + ": " + (nanos / queries) + " ns/query, " + (bytes / queries) + " bytes/query");
+    }
+
+    private static boolean isAllocationMeasured() {
+        return THREADS instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean)THREADS).isThreadAllocatedMemoryEnabled();
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)THREADS).getThreadAllocatedBytes(THREAD_ID);
+        }
+        return 0;
+    }
+
+    private static Map<EntityID, Set<EntityID>> grid(int width) {
+        Map<EntityID, Set<EntityID>> result = new HashMap<EntityID, Set<EntityID>>();
+        for (int y = 0; y < width; ++y) {
+            for (int x = 0; x < width; ++x) {
+                Set<EntityID> neighbours = new HashSet<EntityID>();
+                if (x > 0) {
+                    neighbours.add(new EntityID(y * width + x - 1));
+                }
+                if (x < width - 1) {
+                    neighbours.add(new EntityID(y * width + x + 1));
+                }
+                if (y > 0) {
+                    neighbours.add(new EntityID((y - 1) * width + x));
+                }
+                if (y < width - 1) {
+                    neighbours.add(new EntityID((y + 1) * width + x));
+                }
+                result.put(new EntityID(y * width + x), neighbours);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+package sample;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import rescuecore2.worldmodel.EntityID;
+
+/**
+   An immutable path stored as node indices into the ID table of an {@link AreaGraph}. As a list it is a random access view that looks each EntityID up when it is asked for, so a path can be handed to {@code sendMove} without building a list of EntityIDs first. Slices share the node array of the path they were taken from.
+ */
+public final class SearchPath extends AbstractList<EntityID> implements RandomAccess {
+    private final EntityID[] ids;
+    private final int[] nodes;
+    private final int offset;
+    private final int length;
+    private final boolean partial;
+
+    /**
+       Wrap an array of node indices without copying it. The caller must never change the array afterwards.
+       @param ids The ID table of the graph the nodes belong to.
+       @param nodes The node indices.
+       @param offset The index of the first node of the path.
+       @param length The number of nodes in the path.
+    */
+    SearchPath(EntityID[] ids, int[] nodes, int offset, int length) {
+        this(ids, nodes, offset, length, false);
+    }
+
+    private SearchPath(EntityID[] ids, int[] nodes, int offset, int length, boolean partial) {
+        this.ids = ids;
+        this.nodes = nodes;
+        this.offset = offset;
+        this.length = length;
+        this.partial = partial;
+    }
+
+    /**
+       Create a path from the start of an array of node indices. The nodes are copied.
+       @param graph The graph the nodes belong to.
+       @param nodes The node indices.
+       @param length The number of nodes in the path.
+       @return A new SearchPath.
+    */
+    static SearchPath copyOf(AreaGraph graph, int[] nodes, int length) {
+        return copyOf(graph, nodes, length, false);
+    }
+
+    /**
+       Create a path from the start of an array of node indices. The nodes are copied.
+       @param graph The graph the nodes belong to.
+       @param nodes The node indices.
+       @param length The number of nodes in the path.
+       @param partial Whether the path stops short of the goals.
+       @return A new SearchPath.
+    */
+    static SearchPath copyOf(AreaGraph graph, int[] nodes, int length, boolean partial) {
+        return new SearchPath(graph.idArray(), Arrays.copyOf(nodes, length), 0, length, partial);
+    }
+
+    /**
+       Create a path made of a single area, which does not have to be part of any graph.
+       @param id The area.
+       @return A new SearchPath.
+    */
+    static SearchPath singleton(EntityID id) {
+        return new SearchPath(new EntityID[] {id}, new int[] {0}, 0, 1);
+    }
+
+    @Override
+    public EntityID get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + length);
+        }
+        return ids[nodes[offset + index]];
+    }
+
+    @Override
+    public int size() {
+        return length;
+    }
+
+    /**
+       Find out if this path stops short of the goals. A search that runs out of time returns the path to the area it reached that looked closest to a goal.
+       @return True if the last area is not a goal.
+    */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+       Get the node index of an area on the path.
+       @param index The position on the path.
+       @return The node index.
+    */
+    public int node(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + length);
+        }
+        return nodes[offset + index];
+    }
+
+    /**
+       Get the last area of the path, which is the goal that was reached unless the path is partial.
+       @return The last area.
+    */
+    public EntityID last() {
+        return get(length - 1);
+    }
+
+    /**
+       Get the node index of the last area of the path.
+       @return The node index.
+    */
+    public int lastNode() {
+        return node(length - 1);
+    }
+
+    /**
+       Get part of this path. The slice shares this path's nodes.
+       @param from The first position to include.
+       @param to The position to stop at (exclusive).
+       @return The slice.
+    */
+    public SearchPath slice(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Slice " + from + " to " + to + " of " + length);
+        }
+        return new SearchPath(ids, nodes, offset + from, to - from, partial && to == length);
+    }
+
+    @Override
+    public SearchPath subList(int from, int to) {
+        return slice(from, to);
+    }
+
+    /**
+       Find out if this path starts with the same areas as another list.
+       @param prefix The areas to compare with.
+       @return True if the first areas of this path are the given ones.
+    */
+    public boolean startsWith(List<EntityID> prefix) {
+        if (prefix.size() > length) {
+            return false;
+        }
+        if (prefix instanceof SearchPath && ((SearchPath)prefix).ids == ids) {
+            SearchPath other = (SearchPath)prefix;
+            for (int i = 0; i < other.length; ++i) {
+                if (other.nodes[other.offset + i] != nodes[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        for (int i = 0; i < prefix.size(); ++i) {
+            if (!prefix.get(i).equals(ids[nodes[offset + i]])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+       Copy the node indices of this path.
+       @return A new array of node indices.
+    */
+    public int[] toNodeArray() {
+        return Arrays.copyOfRange(nodes, offset, offset + length);
+    }
+}
@@ -0,0 +1,250 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   Reusable scratch state for graph searches. The visited arrays are stamped with an epoch counter so starting a new search never needs to clear them. There is a second queue and visited array for the backward half of a bidirectional search.
+ */
+final class SearchWorkspace {
+    private final int[] queue;
+    private final int[] parent;
+    private final int[] visited;
+    private final int[] depths;
+    private final int[] backQueue;
+    private final int[] backVisited;
+    private final int[] backDepths;
+    private final double[] costs;
+    private final IntMinHeap heap;
+    private int epoch;
+    private int head;
+    private int tail;
+    private int count;
+    private int backHead;
+    private int backTail;
+
+    /**
+       Create a workspace for graphs with a given number of nodes.
+       @param size The number of nodes.
+    */
+    SearchWorkspace(int size) {
+        queue = new int[Math.max(size, 1)];
+        parent = new int[size];
+        visited = new int[size];
+        depths = new int[size];
+        backQueue = new int[Math.max(size, 1)];
+        backVisited = new int[size];
+        backDepths = new int[size];
+        costs = new double[size];
+        heap = new IntMinHeap(size);
+    }
+
+    /**
+       Start a new search. All nodes become unvisited and the queue is emptied.
+    */
+    void begin() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            Arrays.fill(backVisited, 0);
+            epoch = 1;
+        }
+        head = 0;
+        tail = 0;
+        count = 0;
+        backHead = 0;
+        backTail = 0;
+        heap.clear();
+    }
+
+    /**
+       Find out if a node has been visited in the current search.
+       @param node The node index.
+       @return True if the node has been visited.
+    */
+    boolean isVisited(int node) {
+        return visited[node] == epoch;
+    }
+
+    /**
+       Mark a node as visited and record its parent.
+       @param node The node index.
+       @param from The parent node index.
+    */
+    void visit(int node, int from) {
+        visited[node] = epoch;
+        parent[node] = from;
+    }
+
+    /**
+       Get the number of edges between the start and a node visited by a bidirectional search.
+       @param node The node index.
+       @return The depth of the node.
+    */
+    int depthOf(int node) {
+        return depths[node];
+    }
+
+    /**
+       Record the number of edges between the start and a visited node.
+       @param node The node index.
+       @param depth The depth of the node.
+    */
+    void setDepth(int node, int depth) {
+        depths[node] = depth;
+    }
+
+    /**
+       Find out if a node has been visited by the backward half of the current search.
+       @param node The node index.
+       @return True if the node has been visited backwards.
+    */
+    boolean isVisitedBackward(int node) {
+        return backVisited[node] == epoch;
+    }
+
+    /**
+       Mark a node as visited by the backward half of the search.
+       @param node The node index.
+       @param depth The number of edges between the node and the goal.
+    */
+    void visitBackward(int node, int depth) {
+        backVisited[node] = epoch;
+        backDepths[node] = depth;
+    }
+
+    /**
+       Get the number of edges between a node visited backwards and the goal.
+       @param node The node index.
+       @return The depth of the node.
+    */
+    int backwardDepthOf(int node) {
+        return backDepths[node];
+    }
+
+    /**
+       Get the path cost recorded for a visited node.
+       @param node The node index.
+       @return The path cost.
+    */
+    double costOf(int node) {
+        return costs[node];
+    }
+
+    /**
+       Record the path cost of a node.
+       @param node The node index.
+       @param cost The path cost.
+    */
+    void setCost(int node, double cost) {
+        costs[node] = cost;
+    }
+
+    /**
+       Get the priority queue used by best-first searches. It is emptied by {@link #begin()}.
+       @return The heap.
+    */
+    IntMinHeap heap() {
+        return heap;
+    }
+
+    /**
+       Get the parent of a visited node.
+       @param node The node index.
+       @return The parent node index.
+    */
+    int parentOf(int node) {
+        return parent[node];
+    }
+
+    /**
+       Add a node to the back of the queue.
+       @param node The node index.
+    */
+    void push(int node) {
+        queue[tail] = node;
+        tail = tail + 1 == queue.length ? 0 : tail + 1;
+        ++count;
+    }
+
+    /**
+       Remove the node at the front of the queue.
+       @return The node index.
+    */
+    int pop() {
+        int result = queue[head];
+        head = head + 1 == queue.length ? 0 : head + 1;
+        --count;
+        return result;
+    }
+
+    /**
+       Find out if the queue is empty.
+       @return True if there are no queued nodes.
+    */
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+       Get the number of nodes in the queue.
+       @return The number of queued nodes.
+    */
+    int queued() {
+        return count;
+    }
+
+    /**
+       Get a queued node without removing it.
+       @param i The position in the queue, with zero at the front.
+       @return The node index.
+    */
+    int queuedAt(int i) {
+        int index = head + i;
+        return queue[index >= queue.length ? index - queue.length : index];
+    }
+
+    /**
+       Add a node to the back of the backward queue. Each node is queued backwards at most once per search.
+       @param node The node index.
+    */
+    void pushBackward(int node) {
+        backQueue[backTail++] = node;
+    }
+
+    /**
+       Remove the node at the front of the backward queue.
+       @return The node index.
+    */
+    int popBackward() {
+        return backQueue[backHead++];
+    }
+
+    /**
+       Get the number of nodes in the backward queue.
+       @return The number of queued nodes.
+    */
+    int queuedBackward() {
+        return backTail - backHead;
+    }
+
+    /**
+       Write the path to a visited node into an array, excluding the start node unless the path is just the start. The parent chain must end at a node that is its own parent.
+       @param goal The node the path ends at.
+       @param path The array to write into.
+       @return The length of the path.
+    */
+    int writePath(int goal, int[] path) {
+        if (parent[goal] == goal) {
+            path[0] = goal;
+            return 1;
+        }
+        int length = 0;
+        for (int current = goal; parent[current] != current; current = parent[current]) {
+            ++length;
+        }
+        int i = length;
+        for (int current = goal; parent[current] != current; current = parent[current]) {
+            path[--i] = current;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,58 @@
+package sample;
+
+import java.io.File;
+import java.io.IOException;
+
+import rescuecore2.log.Logger;
+
+import rescuecore2.standard.entities.StandardWorldModel;
+
+/**
+   Hands one MapTopology to every agent launched in the same JVM. The first agent to connect builds the topology and later agents on the same map reuse it, so startup time and heap use do not grow with the number of agents.
+ */
+public final class SharedMapTopology {
+    private MapTopology topology;
+    private long mapHash;
+    private boolean hashed;
+
+    /**
+       Get the topology for a world model, building it if no agent has built one for this map yet.
+       @param world The world model of the connecting agent.
+       @return The shared topology.
+    */
+    public synchronized MapTopology get(StandardWorldModel world) {
+        long fingerprint = MapTopology.fingerprint(world);
+        if (topology == null || !topology.matches(fingerprint)) {
+            topology = MapTopology.build(world, fingerprint);
+            hashed = false;
+        }
+        return topology;
+    }
+
+    /**
+       Get the topology for a world model, loading it from a topology file saved beside the map or building it if no agent has done so for this map yet. Agents are matched by the hash of the map file, so the world model does not have to be fingerprinted.
+       @param world The world model of the connecting agent.
+       @param mapFile The map file the world model was read from, or null if it is not known.
+       @param file The topology file to load from and save to, or null to always build the topology.
+       @return The shared topology.
+    */
+    public synchronized MapTopology get(StandardWorldModel world, File mapFile, File file) {
+        if (mapFile == null || file == null) {
+            return get(world);
+        }
+        long hash;
+        try {
+            hash = MapTopology.mapHash(mapFile);
+        }
+        catch (IOException e) {
+            Logger.warn("Could not read map file " + mapFile, e);
+            return get(world);
+        }
+        if (topology == null || !hashed || mapHash != hash) {
+            topology = MapTopology.build(world, hash, file);
+            mapHash = hash;
+            hashed = true;
+        }
+        return topology;
+    }
+}
@@ -0,0 +1,211 @@
+package sample;
+
+import java.util.Arrays;
+
+/**
+   A set of live target areas of one kind, such as burning buildings or roads with blockades, that can answer which live targets are nearest a point. The targets are kept in a pooled {@link GoalSet}, so the set can be searched for directly, and every subtree of a shared {@link AreaTree} counts the live targets inside it, so nearest queries skip subtrees with none and take time that grows with the logarithm of the map size rather than with the number of targets. Changing a target costs time logarithmic in the size of the map, and queries allocate nothing once the result buffer has grown to the largest count asked for.
+ */
+public final class TargetMask {
+    private final AreaTree tree;
+    private final GoalSet live;
+    private final int[] counts;
+    private long[] heapDistances;
+    private int[] heapNodes;
+    private int heapSize;
+    private int wanted;
+
+    /**
+       Create an empty mask.
+       @param tree The tree over the areas of the map.
+    */
+    public TargetMask(AreaTree tree) {
+        this.tree = tree;
+        this.live = new GoalSet(tree.getGraph());
+        this.counts = new int[tree.size()];
+        this.heapDistances = new long[16];
+        this.heapNodes = new int[16];
+    }
+
+    /**
+       Mark an area as a live target or not.
+       @param node The node index of the area, or -1 if it is not part of the graph.
+       @param isLive True if the area is a live target.
+    */
+    public void set(int node, boolean isLive) {
+        if (node < 0 || live.contains(node) == isLive) {
+            return;
+        }
+        if (isLive) {
+            live.add(node);
+        }
+        else {
+            live.remove(node);
+        }
+        count(node, isLive ? 1 : -1);
+    }
+
+    /**
+       Find out if an area is a live target.
+       @param node The node index of the area.
+       @return True if the area is a live target.
+    */
+    public boolean isLive(int node) {
+        return node >= 0 && live.contains(node);
+    }
+
+    /**
+       Get the number of live targets.
+       @return The number of live targets.
+    */
+    public int size() {
+        return live.size();
+    }
+
+    /**
+       Get the live targets as a goal set. The set belongs to this mask and changes with it.
+       @return The live targets.
+    */
+    public GoalSet getGoals() {
+        return live;
+    }
+
+    /**
+       Remove every target. This costs time proportional to the number of live targets.
+    */
+    public void clear() {
+        for (int i = 0; i < live.size(); ++i) {
+            count(live.get(i), -1);
+        }
+        live.clear();
+    }
+
+    /**
+       Find the live targets whose centroid is nearest a point. Targets without a location are never found.
+       @param x The x coordinate of the point.
+       @param y The y coordinate of the point.
+       @param count The largest number of targets wanted.
+       @param out The array to write the node indices into, nearest first. It must have room for count entries.
+       @return The number of targets written.
+    */
+    public int nearest(int x, int y, int count, int[] out) {
+        if (count > heapNodes.length) {
+            heapDistances = Arrays.copyOf(heapDistances, count);
+            heapNodes = Arrays.copyOf(heapNodes, count);
+        }
+        heapSize = 0;
+        wanted = count;
+        if (count > 0 && tree.size() > 0) {
+            search(0, tree.size(), x, y);
+        }
+        int found = heapSize;
+        while (heapSize > 0) {
+            out[heapSize - 1] = heapNodes[0];
+            pop();
+        }
+        return found;
+    }
+
+    /**
+       Add to the live count of every subtree on the way from the root to an area.
+    */
+    private void count(int node, int delta) {
+        int position = tree.positionOf(node);
+        if (position < 0) {
+            return;
+        }
+        int low = 0;
+        int high = tree.size();
+        while (true) {
+            int middle = (low + high) >>> 1;
+            counts[middle] += delta;
+            if (position == middle) {
+                return;
+            }
+            if (position < middle) {
+                high = middle;
+            }
+            else {
+                low = middle + 1;
+            }
+        }
+    }
+
+    private void search(int low, int high, int x, int y) {
+        int middle = (low + high) >>> 1;
+        if (counts[middle] == 0 || (heapSize == wanted && tree.boxDistanceTo(middle, x, y) > heapDistances[0])) {
+            return;
+        }
+        int node = tree.nodeAt(middle);
+        if (live.contains(node)) {
+            offer(tree.distanceTo(middle, x, y), node);
+        }
+        // Visit the nearer half first so the other is more likely to be pruned
+        long left = low < middle ? tree.boxDistanceTo((low + middle) >>> 1, x, y) : Long.MAX_VALUE;
+        long right = middle + 1 < high ? tree.boxDistanceTo((middle + 1 + high) >>> 1, x, y) : Long.MAX_VALUE;
+        if (left <= right) {
+            if (low < middle) {
+                search(low, middle, x, y);
+            }
+            if (middle + 1 < high) {
+                search(middle + 1, high, x, y);
+            }
+        }
+        else {
+            search(middle + 1, high, x, y);
+            if (low < middle) {
+                search(low, middle, x, y);
+            }
+        }
+    }
+
+    /**
+       Offer a target to the bounded max-heap of the nearest targets found so far. Ties are broken by node index so results do not depend on the shape of the tree.
+    */
+    private void offer(long distance, int node) {
+        if (heapSize == wanted) {
+            if (!farther(heapDistances[0], heapNodes[0], distance, node)) {
+                return;
+            }
+            pop();
+        }
+        int i = heapSize++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!farther(distance, node, heapDistances[parent], heapNodes[parent])) {
+                break;
+            }
+            heapDistances[i] = heapDistances[parent];
+            heapNodes[i] = heapNodes[parent];
+            i = parent;
+        }
+        heapDistances[i] = distance;
+        heapNodes[i] = node;
+    }
+
+    private void pop() {
+        long distance = heapDistances[--heapSize];
+        int node = heapNodes[heapSize];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && farther(heapDistances[child + 1], heapNodes[child + 1], heapDistances[child], heapNodes[child])) {
+                ++child;
+            }
+            if (!farther(heapDistances[child], heapNodes[child], distance, node)) {
+                break;
+            }
+            heapDistances[i] = heapDistances[child];
+            heapNodes[i] = heapNodes[child];
+            i = child;
+        }
+        heapDistances[i] = distance;
+        heapNodes[i] = node;
+    }
+
+    private static boolean farther(long distance, int node, long otherDistance, int otherNode) {
+        return distance > otherDistance || (distance == otherDistance && node > otherNode);
+    }
+}